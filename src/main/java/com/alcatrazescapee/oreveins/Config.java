@@ -44,6 +44,20 @@ public final class Config
         public final ForgeConfigSpec.BooleanValue debugCommands;
         public final ForgeConfigSpec.IntValue extraChunkRange;
         public final ForgeConfigSpec.BooleanValue avoidVeinCutoffs;
+        public final ForgeConfigSpec.IntValue veinCacheSize;
+        public final ForgeConfigSpec.IntValue veinCacheOffHeapLimit;
+        public final ForgeConfigSpec.IntValue veinPrefetchSeconds;
+        public final ForgeConfigSpec.IntValue veinPrefetchQueueSize;
+        public final ForgeConfigSpec.BooleanValue veinIndex;
+        public final ForgeConfigSpec.BooleanValue compileVeins;
+        public final ForgeConfigSpec.BooleanValue skipSampling;
+        public final ForgeConfigSpec.BooleanValue legacyVeinRolling;
+        public final ForgeConfigSpec.DoubleValue shadowPlacementRate;
+        public final ForgeConfigSpec.IntValue clearWorldTickBudget;
+
+        public final ForgeConfigSpec.IntValue pregenTickBudget;
+        public final ForgeConfigSpec.IntValue pregenMaxChunksInFlight;
+        public final ForgeConfigSpec.IntValue pregenTargetTickTime;
 
         private final ForgeConfigSpec.ConfigValue<List<? extends String>> disabledOres;
 
@@ -63,6 +77,10 @@ public final class Config
                     .comment("Enable debug commands such as /veininfo, /clearworld, /findveins")
                     .define("debugCommands", true);
 
+            clearWorldTickBudget = builder
+                    .comment("The maximum time in milliseconds each server tick can spend clearing chunks for /clearworld")
+                    .defineInRange("clearWorldTickBudget", 20, 1, 1000);
+
             extraChunkRange = builder
                     .comment("Extra chunk search range when generating veins", "Use if your veins are getting cut off at chunk boundaries")
                     .defineInRange("extraChunkRange", 0, 0, 20);
@@ -71,6 +89,56 @@ public final class Config
                     .comment("Try to avoid placing veins on the edge of their range as defined by min / max y, so they don't get cut off at the border.")
                     .define("avoidVeinCutoffs", true);
 
+            veinCacheSize = builder
+                    .comment("The maximum number of chunks to cache veins for.", "Each chunk being generated needs the veins of all chunks in range, so this should be at least a few times larger than the number of chunks generated at once.")
+                    .defineInRange("veinCacheSize", 4096, 0, 1 << 20);
+
+            veinCacheOffHeapLimit = builder
+                    .comment("If > 0, the vein cache is stored outside of the java heap, up to this many megabytes, and veinCacheSize is ignored.", "This is useful for very large worlds where the cache would take heap memory needed by the server. The JVM's maximum direct memory (-XX:MaxDirectMemorySize) must be larger than this.")
+                    .defineInRange("veinCacheOffHeapLimit", 0, 0, 1 << 16);
+
+            veinPrefetchSeconds = builder
+                    .comment("How far ahead, in seconds, to predict where moving players will generate chunks, and compute the veins there in the background.", "Set to 0 to disable. Use /oreveins cache to see how many chunks found their veins already computed.")
+                    .defineInRange("veinPrefetchSeconds", 2, 0, 30);
+
+            veinPrefetchQueueSize = builder
+                    .comment("The maximum number of predicted areas waiting to have their veins computed. When full, the oldest predictions are dropped.")
+                    .defineInRange("veinPrefetchQueueSize", 16, 1, 1024);
+
+            veinIndex = builder
+                    .comment("Write an index of generated veins to disk, in the oreveins_index folder of each dimension.", "This allows searching for veins over very large areas, i.e. /findveins indexed")
+                    .define("veinIndex", false);
+
+            compileVeins = builder
+                    .comment("Compile each vein type into a specialized evaluator when veins are loaded. This is faster, and generates exactly the same veins.", "Disable to evaluate veins through the generic vein type methods instead.")
+                    .define("compileVeins", true);
+
+            skipSampling = builder
+                    .comment("For low density veins, skip directly to the next block which will generate, instead of rolling a chance at every block. This is faster for sparse veins.", "Each block still has the same chance to generate, but different blocks will be chosen than with this disabled, so enabling this in an existing world will cause veins to not line up at the border of new chunks.")
+                    .define("skipSampling", false);
+
+            legacyVeinRolling = builder
+                    .comment("Roll the veins of all vein types in a chunk from one shared random, in the order vein types were registered, as older versions did. This keeps veins lining up at the border of new chunks in existing worlds.", "New worlds can disable this, so each vein type is rolled from its own random. That is faster for filtered searches such as /findveins and after reloading vein types, as vein types can be rolled on their own. Disabling this in an existing world will cause veins to not line up at the border of new chunks.")
+                    .define("legacyVeinRolling", true);
+
+            shadowPlacementRate = builder
+                    .comment("The fraction of chunks in which veins are also placed with the alternate engine (interpreted if compileVeins is true, compiled if not), into a scratch buffer, and compared with what was actually placed.", "Differences are logged, and /oreveins shadow shows how many chunks differed and the relative time of the alternate engine. This does not change what is generated, but sampled chunks take more than twice as long to decorate.")
+                    .defineInRange("shadowPlacementRate", 0.0, 0.0, 1.0);
+
+            builder.pop().push("pregen");
+
+            pregenTickBudget = builder
+                    .comment("The maximum time in milliseconds each server tick can spend scheduling chunks for /oreveins pregen")
+                    .defineInRange("pregenTickBudget", 10, 1, 1000);
+
+            pregenMaxChunksInFlight = builder
+                    .comment("The maximum number of chunks that /oreveins pregen will have waiting to be generated at once")
+                    .defineInRange("pregenMaxChunksInFlight", 64, 1, 4096);
+
+            pregenTargetTickTime = builder
+                    .comment("The tick time in milliseconds /oreveins pregen will try to stay under. If the average tick time is above this, fewer chunks will be scheduled.")
+                    .defineInRange("pregenTargetTickTime", 40, 1, 1000);
+
             builder.pop();
         }
 
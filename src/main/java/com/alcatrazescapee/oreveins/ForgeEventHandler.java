@@ -8,13 +8,29 @@ package com.alcatrazescapee.oreveins;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import net.minecraft.command.CommandSource;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.event.server.FMLServerAboutToStartEvent;
 import net.minecraftforge.fml.event.server.FMLServerStartingEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
 
+import com.alcatrazescapee.oreveins.command.CacheCommand;
 import com.alcatrazescapee.oreveins.command.ClearWorldCommand;
 import com.alcatrazescapee.oreveins.command.FindVeinsCommand;
+import com.alcatrazescapee.oreveins.command.PregenCommand;
+import com.alcatrazescapee.oreveins.command.ShadowCommand;
 import com.alcatrazescapee.oreveins.command.VeinInfoCommand;
+import com.alcatrazescapee.oreveins.world.VanillaFeatureManager;
+import com.alcatrazescapee.oreveins.world.VeinIndex;
+import com.alcatrazescapee.oreveins.world.VeinPrefetcher;
+import com.alcatrazescapee.oreveins.world.VeinShadow;
+import com.alcatrazescapee.oreveins.world.VeinSavedData;
+import com.alcatrazescapee.oreveins.world.pregen.Pregenerator;
 import com.alcatrazescapee.oreveins.world.vein.VeinManager;
 import com.mojang.brigadier.CommandDispatcher;
 
@@ -30,6 +46,9 @@ public enum ForgeEventHandler
         // Register vein reload listener
         LOGGER.debug("Before Server Start");
         event.getServer().getResourceManager().addReloadListener(VeinManager.INSTANCE);
+
+        // Wrap any ore features which other mods added after setup
+        VanillaFeatureManager.setup();
     }
 
     @SubscribeEvent
@@ -37,6 +56,10 @@ public enum ForgeEventHandler
     {
         LOGGER.debug("On Server Starting");
 
+        PregenCommand.register(event.getCommandDispatcher());
+        CacheCommand.register(event.getCommandDispatcher());
+        ShadowCommand.register(event.getCommandDispatcher());
+
         if (Config.COMMON.debugCommands.get())
         {
             LOGGER.info("Registering Debug Commands");
@@ -47,4 +70,72 @@ public enum ForgeEventHandler
             VeinInfoCommand.register(dispatcher);
         }
     }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if (event.phase == TickEvent.Phase.END)
+        {
+            final MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+            if (server != null)
+            {
+                Pregenerator.INSTANCE.tick(server);
+                ClearWorldCommand.tick();
+                VeinPrefetcher.INSTANCE.tick(server);
+            }
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldLoad(WorldEvent.Load event)
+    {
+        if (event.getWorld() instanceof ServerWorld)
+        {
+            VeinSavedData.load((ServerWorld) event.getWorld());
+            VeinIndex.load((ServerWorld) event.getWorld());
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldSave(WorldEvent.Save event)
+    {
+        if (event.getWorld() instanceof ServerWorld)
+        {
+            VeinSavedData.save((ServerWorld) event.getWorld());
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event)
+    {
+        if (event.getWorld() instanceof ServerWorld)
+        {
+            VeinSavedData.unload((ServerWorld) event.getWorld());
+            VeinIndex.unload((ServerWorld) event.getWorld());
+        }
+    }
+
+    @SubscribeEvent
+    public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event)
+    {
+        VeinPrefetcher.INSTANCE.removePlayer(event.getPlayer().getUniqueID());
+    }
+
+    @SubscribeEvent
+    public void onPlayerChangedDimension(PlayerEvent.PlayerChangedDimensionEvent event)
+    {
+        VeinPrefetcher.INSTANCE.removePlayer(event.getPlayer().getUniqueID());
+    }
+
+    @SubscribeEvent
+    public void onServerStopping(FMLServerStoppingEvent event)
+    {
+        LOGGER.debug("On Server Stopping");
+        Pregenerator.INSTANCE.pause(event.getServer());
+        FindVeinsCommand.cancelAll();
+        ClearWorldCommand.cancel();
+        VeinPrefetcher.INSTANCE.shutdown();
+        VeinIndex.closeAll();
+        VeinShadow.INSTANCE.reset();
+    }
 }
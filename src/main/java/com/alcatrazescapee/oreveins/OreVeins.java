@@ -64,7 +64,7 @@ public class OreVeins
                 biome.addFeature(GenerationStage.Decoration.UNDERGROUND_ORES, feature);
             });
 
-            VanillaFeatureManager.onConfigReloading();
+            VanillaFeatureManager.setup();
         });
     }
 
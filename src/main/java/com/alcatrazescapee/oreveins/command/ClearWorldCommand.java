@@ -6,19 +6,28 @@
 
 package com.alcatrazescapee.oreveins.command;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import javax.annotation.Nullable;
 
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
 import net.minecraft.command.CommandSource;
 import net.minecraft.command.Commands;
+import net.minecraft.network.play.server.SChunkDataPacket;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.text.TranslationTextComponent;
-import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.chunk.IChunk;
+import net.minecraft.world.gen.Heightmap;
+import net.minecraft.world.server.ServerWorld;
 
+import com.alcatrazescapee.oreveins.Config;
+import com.alcatrazescapee.oreveins.util.collections.BlockStateSet;
 import com.alcatrazescapee.oreveins.world.vein.VeinManager;
-import com.alcatrazescapee.oreveins.world.vein.VeinType;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 
@@ -26,12 +35,9 @@ import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
 
 public final class ClearWorldCommand
 {
-    private static final Set<BlockState> VEIN_STATES = new HashSet<>();
+    private static final long REPORT_INTERVAL = 2_000_000_000L; // 2 seconds, in nanos
 
-    public static void resetVeinStates()
-    {
-        VeinManager.INSTANCE.getVeins().stream().map(VeinType::getOreStates).forEach(VEIN_STATES::addAll);
-    }
+    @Nullable private static Task task;
 
     public static void register(CommandDispatcher<CommandSource> dispatcher)
     {
@@ -41,21 +47,199 @@ public final class ClearWorldCommand
                     .executes(cmd -> clearWorld(cmd.getSource(), IntegerArgumentType.getInteger(cmd, "radius")))));
     }
 
+    /**
+     * Stops the current task. Called when the server is stopping
+     */
+    public static void cancel()
+    {
+        task = null;
+    }
+
+    /**
+     * Clears chunks for the current task until the tick budget is used up
+     */
+    public static void tick()
+    {
+        if (task != null)
+        {
+            final long deadline = System.nanoTime() + Config.COMMON.clearWorldTickBudget.get() * 1_000_000L;
+            while (task.nextChunk < task.totalChunks && System.nanoTime() < deadline)
+            {
+                task.clearChunk(task.nextChunk++);
+            }
+
+            if (task.nextChunk >= task.totalChunks)
+            {
+                task.source.sendFeedback(new TranslationTextComponent(MOD_ID + ".command.clear_world_done"), true);
+                task = null;
+            }
+            else if (System.nanoTime() - task.lastReport > REPORT_INTERVAL)
+            {
+                task.lastReport = System.nanoTime();
+                task.source.sendFeedback(new TranslationTextComponent(MOD_ID + ".command.clear_world_progress", task.nextChunk, task.totalChunks), false);
+            }
+        }
+    }
+
     private static int clearWorld(CommandSource source, int radius)
     {
-        final World world = source.getWorld();
+        if (task != null)
+        {
+            source.sendErrorMessage(new TranslationTextComponent(MOD_ID + ".command.clear_world_busy"));
+            return 0;
+        }
+
         final BlockPos center = new BlockPos(source.getPos());
-        final BlockState air = Blocks.AIR.getDefaultState();
+        task = new Task(source, center.getX() - radius, center.getZ() - radius, center.getX() + radius, center.getZ() + radius);
+        return 1;
+    }
+
+    /**
+     * Clears all non-vein blocks in an area, one chunk section at a time.
+     * Sections are modified directly, rather than through the world, so tile entities of cleared blocks are removed from the chunk here. Each chunk is sent to clients once it is cleared.
+     * Chunks which are not loaded are skipped.
+     * Lighting is not recalculated.
+     */
+    private static final class Task
+    {
+        private final CommandSource source;
+        private final ServerWorld world;
+        private final int minX, minZ, maxX, maxZ;
+        private final int minChunkX, minChunkZ, chunksX;
+        private final int totalChunks;
+
+        private int nextChunk;
+        private long lastReport;
 
-        for (BlockPos pos : BlockPos.Mutable.getAllInBoxMutable(center.add(-radius, 255 - center.getY(), -radius), center.add(radius, -center.getY(), radius)))
+        private Task(CommandSource source, int minX, int minZ, int maxX, int maxZ)
         {
-            if (!VEIN_STATES.contains(world.getBlockState(pos)))
+            this.source = source;
+            this.world = source.getWorld();
+            this.minX = minX;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+            this.minChunkX = minX >> 4;
+            this.minChunkZ = minZ >> 4;
+            this.chunksX = (maxX >> 4) - minChunkX + 1;
+            this.totalChunks = chunksX * ((maxZ >> 4) - minChunkZ + 1);
+            this.lastReport = System.nanoTime();
+        }
+
+        private void clearChunk(int index)
+        {
+            // Only clear loaded chunks, as generating or loading chunks here could take far longer than the tick budget
+            final IChunk loadedChunk = world.getChunkProvider().getChunk(minChunkX + index % chunksX, minChunkZ + index / chunksX, ChunkStatus.FULL, false);
+            if (!(loadedChunk instanceof Chunk))
             {
-                world.setBlockState(pos, air, 2 | 16);
+                return;
             }
+            final Chunk chunk = (Chunk) loadedChunk;
+            final int chunkMinX = chunk.getPos().getXStart(), chunkMinZ = chunk.getPos().getZStart();
+
+            // The area of this chunk that needs to be cleared, in local coordinates
+            final int localMinX = Math.max(minX - chunkMinX, 0), localMaxX = Math.min(maxX - chunkMinX, 15);
+            final int localMinZ = Math.max(minZ - chunkMinZ, 0), localMaxZ = Math.min(maxZ - chunkMinZ, 15);
+            final boolean fullChunk = localMinX == 0 && localMaxX == 15 && localMinZ == 0 && localMaxZ == 15;
+
+            final BlockStateSet veinStates = VeinManager.INSTANCE.getOreStates();
+            final ChunkSection[] sections = chunk.getSections();
+            for (int i = 0; i < sections.length; i++)
+            {
+                final ChunkSection section = sections[i];
+                if (ChunkSection.isEmpty(section))
+                {
+                    continue;
+                }
+
+                final SectionStates states = new SectionStates(section, veinStates);
+                if (fullChunk && !states.keepAny)
+                {
+                    // Nothing in this section would be kept, so drop the whole section, along with any tile entities in it
+                    final int sectionY = i;
+                    new ArrayList<>(chunk.getTileEntitiesPos()).stream().filter(pos -> pos.getY() >> 4 == sectionY).forEach(chunk::removeTileEntity);
+                    sections[i] = Chunk.EMPTY_SECTION;
+                    continue;
+                }
+
+                final BlockState air = Blocks.AIR.getDefaultState();
+                BlockState lastState = null;
+                boolean clearLast = false;
+                for (int y = 0; y < 16; y++)
+                {
+                    for (int x = localMinX; x <= localMaxX; x++)
+                    {
+                        for (int z = localMinZ; z <= localMaxZ; z++)
+                        {
+                            // Runs of the same state are common, so only look up a state when it changes
+                            final BlockState state = section.getBlockState(x, y, z);
+                            if (state != lastState)
+                            {
+                                lastState = state;
+                                clearLast = !state.isAir() && !states.keep(state, veinStates);
+                            }
+                            if (clearLast)
+                            {
+                                section.setBlockState(x, y, z, air, false);
+                                if (state.hasTileEntity())
+                                {
+                                    chunk.removeTileEntity(new BlockPos(chunkMinX + x, (i << 4) + y, chunkMinZ + z));
+                                }
+                            }
+                        }
+                    }
+                }
+                if (section.isEmpty())
+                {
+                    sections[i] = Chunk.EMPTY_SECTION;
+                }
+            }
+
+            Heightmap.updateChunkHeightmaps(chunk, EnumSet.of(Heightmap.Type.MOTION_BLOCKING, Heightmap.Type.MOTION_BLOCKING_NO_LEAVES, Heightmap.Type.OCEAN_FLOOR, Heightmap.Type.WORLD_SURFACE));
+            chunk.markDirty();
+
+            final SChunkDataPacket packet = new SChunkDataPacket(chunk, 65535);
+            world.getChunkProvider().chunkManager.getTrackingPlayers(chunk.getPos(), false).forEach(player -> player.connection.sendPacket(packet));
         }
 
-        source.sendFeedback(new TranslationTextComponent(MOD_ID + ".command.clear_world_done"), true);
-        return 1;
+    }
+
+    /**
+     * The distinct states in a section, and if each is a vein state. Sections rarely have more than a handful of distinct states, so these are found with a linear search by identity, which is cheaper than looking up the state id of each block.
+     */
+    private static final class SectionStates
+    {
+        private final BlockState[] states;
+        private final boolean[] keep;
+        private final boolean keepAny;
+
+        private SectionStates(ChunkSection section, BlockStateSet veinStates)
+        {
+            final List<BlockState> states = new ArrayList<>();
+            section.getData().count((state, count) -> states.add(state));
+
+            this.states = states.toArray(new BlockState[0]);
+            this.keep = new boolean[this.states.length];
+            boolean keepAny = false;
+            for (int i = 0; i < this.states.length; i++)
+            {
+                keep[i] = veinStates.contains(this.states[i]);
+                keepAny |= keep[i];
+            }
+            this.keepAny = keepAny;
+        }
+
+        private boolean keep(BlockState state, BlockStateSet veinStates)
+        {
+            for (int i = 0; i < states.length; i++)
+            {
+                if (states[i] == state)
+                {
+                    return keep[i];
+                }
+            }
+            // Only blocks which have not been cleared yet are looked up, so this should not be reached
+            return veinStates.contains(state);
+        }
     }
 }
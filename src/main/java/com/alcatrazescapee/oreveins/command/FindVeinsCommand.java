@@ -5,79 +5,427 @@
 
 package com.alcatrazescapee.oreveins.command;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.JsonParseException;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import net.minecraft.block.BlockState;
 import net.minecraft.command.CommandSource;
 import net.minecraft.command.Commands;
 import net.minecraft.command.ISuggestionProvider;
+import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.text.ITextComponent;
 import net.minecraft.util.text.TextComponentUtils;
 import net.minecraft.util.text.TextFormatting;
 import net.minecraft.util.text.TranslationTextComponent;
+import net.minecraft.world.dimension.DimensionType;
 
-import com.alcatrazescapee.oreveins.world.VeinsFeature;
+import com.alcatrazescapee.oreveins.util.json.BlockStateDeserializer;
+import com.alcatrazescapee.oreveins.world.VeinFilter;
+import com.alcatrazescapee.oreveins.world.VeinIndex;
+import com.alcatrazescapee.oreveins.world.VeinRecord;
+import com.alcatrazescapee.oreveins.world.VeinSavedData;
+import com.alcatrazescapee.oreveins.world.VeinScanner;
 import com.alcatrazescapee.oreveins.world.vein.Vein;
 import com.alcatrazescapee.oreveins.world.vein.VeinManager;
 import com.alcatrazescapee.oreveins.world.vein.VeinType;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
 
 import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
 
 public final class FindVeinsCommand
 {
+    private static final Logger LOGGER = LogManager.getLogger();
     private static final String TP_MESSAGE = "{\"text\":\"" + TextFormatting.BLUE + "[Click to Teleport]" + TextFormatting.RESET + "\",\"clickEvent\":{\"action\":\"run_command\",\"value\":\"/tp %d %d %d\"}}";
+    private static final int PAGE_SIZE = 10;
+    private static final int MAX_RESULTS = 100;
+    private static final int SHELL_WIDTH = 16;
+    private static final List<String> FILTER_KEYS = Arrays.asList("ore=", "miny=", "maxy=");
+    private static final DynamicCommandExceptionType INVALID_FILTER = new DynamicCommandExceptionType(args -> new TranslationTextComponent(MOD_ID + ".command.invalid_filter", args));
+
+    /**
+     * Searches are keyed by the entity running them, or this for non-entity sources such as the server console
+     */
+    private static final UUID NO_ENTITY = new UUID(0, 0);
+    private static final Map<UUID, Search> SEARCHES = new ConcurrentHashMap<>();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder().setNameFormat("OreVeins-FindVeins-%d").setDaemon(true).build());
 
     public static void register(CommandDispatcher<CommandSource> dispatcher)
     {
         dispatcher.register(
             Commands.literal("findveins").requires(source -> source.hasPermissionLevel(2))
+                .then(Commands.literal("cancel")
+                    .executes(cmd -> cancel(cmd.getSource()))
+                )
+                .then(Commands.literal("indexed")
+                    .then(Commands.argument("type", new VeinTypeArgument())
+                        .suggests((context, builder) -> ISuggestionProvider.suggestIterable(VeinManager.INSTANCE.getKeys(), builder))
+                        .then(Commands.argument("distance", IntegerArgumentType.integer(1, 30_000_000))
+                            .executes(cmd -> findIndexedVeins(cmd.getSource(), VeinTypeArgument.getVein(cmd, "type"), IntegerArgumentType.getInteger(cmd, "distance")))
+                        )
+                    )
+                )
                 .then(Commands.argument("type", new VeinTypeArgument())
                     .suggests((context, builder) -> ISuggestionProvider.suggestIterable(VeinManager.INSTANCE.getKeys(), builder))
                     .then(Commands.argument("radius", IntegerArgumentType.integer(0, 250))
-                        .executes(cmd -> findVeins(cmd.getSource(), VeinTypeArgument.getVein(cmd, "type"), IntegerArgumentType.getInteger(cmd, "radius")))
+                        .executes(cmd -> findVeins(cmd.getSource(), VeinTypeArgument.getVein(cmd, "type"), IntegerArgumentType.getInteger(cmd, "radius"), ""))
+                        .then(Commands.argument("filters", StringArgumentType.greedyString())
+                            .suggests((context, builder) -> ISuggestionProvider.suggest(FILTER_KEYS, builder.createOffset(builder.getStart() + builder.getRemaining().lastIndexOf(' ') + 1)))
+                            .executes(cmd -> findVeins(cmd.getSource(), VeinTypeArgument.getVein(cmd, "type"), IntegerArgumentType.getInteger(cmd, "radius"), StringArgumentType.getString(cmd, "filters")))
+                        )
                     )
                 )
         );
     }
 
-    private static int findVeins(CommandSource source, ResourceLocation veinName, int radius) throws CommandSyntaxException
+    /**
+     * Cancels all running searches. Called when the server is stopping
+     */
+    public static void cancelAll()
+    {
+        SEARCHES.values().forEach(search -> search.cancelled = true);
+        SEARCHES.clear();
+    }
+
+    private static int findVeins(CommandSource source, ResourceLocation veinName, int radius, String filters) throws CommandSyntaxException
     {
-        final BlockPos pos = new BlockPos(source.getPos());
-        final int chunkX = pos.getX() >> 4, chunkZ = pos.getZ() >> 4;
-        final List<Vein<?>> veins = VeinsFeature.getNearbyVeins(chunkX, chunkZ, source.getWorld().getSeed(), radius);
         final VeinType<?> type = VeinManager.INSTANCE.getVein(veinName);
         if (type == null)
         {
             source.sendErrorMessage(new TranslationTextComponent(MOD_ID + ".command.unknown_vein", veinName.toString()));
+            return 0;
+        }
+
+        final BlockPos pos = new BlockPos(source.getPos());
+        final VeinFilter filter = parseFilter(type, filters, pos, radius * 16);
+        final UUID key = getKey(source);
+        final Search search = new Search(source, key, filter, pos, radius);
+        if (SEARCHES.putIfAbsent(key, search) != null)
+        {
+            source.sendErrorMessage(new TranslationTextComponent(MOD_ID + ".command.find_veins_busy"));
+            return 0;
         }
 
-        // Search for veins matching type
-        //noinspection EqualsBetweenInconvertibleTypes
-        veins.removeIf(x -> !x.getType().equals(type));
         source.sendFeedback(new TranslationTextComponent(MOD_ID + ".command.veins_found"), true);
-        for (Vein<?> vein : veins)
+        EXECUTOR.execute(search);
+        return 1;
+    }
+
+    /**
+     * Searches the on disk vein index, which covers all generated chunks, instead of rolling veins
+     */
+    private static int findIndexedVeins(CommandSource source, ResourceLocation veinName, int distance)
+    {
+        final VeinIndex index = VeinIndex.get(source.getWorld().getDimension().getType());
+        if (index == null)
+        {
+            source.sendErrorMessage(new TranslationTextComponent(MOD_ID + ".command.vein_index_disabled"));
+            return 0;
+        }
+
+        final BlockPos pos = new BlockPos(source.getPos());
+        source.sendFeedback(new TranslationTextComponent(MOD_ID + ".command.veins_found"), true);
+        index.query(veinName, pos, distance).whenComplete((veins, error) -> source.getServer().execute(() -> {
+            if (error != null)
+            {
+                LOGGER.warn("Unable to query vein index for {} within {} blocks of {}", veinName, distance, pos);
+                LOGGER.warn("Error: ", error);
+                source.sendErrorMessage(new TranslationTextComponent(MOD_ID + ".command.vein_index_failed"));
+                return;
+            }
+            veins.stream()
+                .sorted(Comparator.comparingDouble(vein -> vein.getPos().distanceSq(pos)))
+                .limit(MAX_RESULTS)
+                .forEach(vein -> sendVein(source, vein));
+            if (veins.size() > MAX_RESULTS)
+            {
+                source.sendFeedback(new TranslationTextComponent(MOD_ID + ".command.find_indexed_veins_truncated", veins.size(), MAX_RESULTS), true);
+            }
+            else
+            {
+                source.sendFeedback(new TranslationTextComponent(MOD_ID + ".command.find_veins_done", veins.size()), true);
+            }
+        }));
+        return 1;
+    }
+
+    private static int cancel(CommandSource source)
+    {
+        // The search is removed by its worker once it stops, so a new search can't start while the old one is still running
+        final Search search = SEARCHES.get(getKey(source));
+        if (search != null && !search.cancelled)
         {
-            ITextComponent resultText = new TranslationTextComponent(MOD_ID + ".command.vein_info", vein.toString());
-            if (source.getEntity() instanceof PlayerEntity)
+            search.cancelled = true;
+            source.sendFeedback(new TranslationTextComponent(MOD_ID + ".command.find_veins_cancelled"), true);
+            return 1;
+        }
+        source.sendErrorMessage(new TranslationTextComponent(MOD_ID + ".command.find_veins_not_running"));
+        return 0;
+    }
+
+    /**
+     * Parses optional filters, in the form {@code ore=<block state> miny=<y> maxy=<y>}
+     *
+     * @param maxDistance the maximum horizontal distance from the center to the vein origin, in blocks
+     */
+    private static VeinFilter parseFilter(VeinType<?> type, String filters, BlockPos center, int maxDistance) throws CommandSyntaxException
+    {
+        BlockState ore = null;
+        int minY = 0, maxY = 256;
+        for (String filter : filters.trim().split("\\s+"))
+        {
+            if (filter.isEmpty())
+            {
+                continue;
+            }
+            final int split = filter.indexOf('=');
+            final String key = split == -1 ? filter : filter.substring(0, split);
+            final String value = split == -1 ? "" : filter.substring(split + 1);
+            try
             {
-                BlockPos veinPos = vein.getPos();
-                try
+                switch (key)
                 {
-                    ITextComponent tpText = ITextComponent.Serializer.fromJsonLenient(String.format(TP_MESSAGE, veinPos.getX(), veinPos.getY(), veinPos.getZ()));
-                    if (tpText != null)
+                    case "ore":
+                        ore = BlockStateDeserializer.INSTANCE.readBlockState(value);
+                        break;
+                    case "miny":
+                        minY = Integer.parseInt(value);
+                        break;
+                    case "maxy":
+                        maxY = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw INVALID_FILTER.create(filter);
+                }
+            }
+            catch (NumberFormatException | JsonParseException e)
+            {
+                throw INVALID_FILTER.create(filter);
+            }
+        }
+        return new VeinFilter(type, ore, minY, maxY, center, maxDistance);
+    }
+
+    private static UUID getKey(CommandSource source)
+    {
+        final Entity entity = source.getEntity();
+        return entity != null ? entity.getUniqueID() : NO_ENTITY;
+    }
+
+    private static void sendVein(CommandSource source, VeinRecord vein)
+    {
+        ITextComponent resultText = new TranslationTextComponent(MOD_ID + ".command.vein_info", vein.toString());
+        if (source.getEntity() instanceof PlayerEntity)
+        {
+            BlockPos veinPos = vein.getPos();
+            try
+            {
+                ITextComponent tpText = ITextComponent.Serializer.fromJsonLenient(String.format(TP_MESSAGE, veinPos.getX(), veinPos.getY(), veinPos.getZ()));
+                if (tpText != null)
+                {
+                    source.getEntity().sendMessage(TextComponentUtils.updateForEntity(source, resultText.appendSibling(tpText), source.getEntity(), 0));
+                }
+            }
+            catch (JsonParseException e) { /* Ignore, it shouldn't happen */ }
+        }
+        else
+        {
+            source.sendFeedback(resultText, false);
+        }
+    }
+
+    /**
+     * A search running on the executor.
+     * This searches square shells of chunks outwards from the center. Veins found are held until every closer vein must have been found, then reported in order of distance, so the closest veins are reported first. Results are handed back to the server thread a page at a time.
+     */
+    private static final class Search implements Runnable
+    {
+        private final CommandSource source;
+        private final UUID key;
+        private final VeinFilter filter;
+        private final BlockPos center;
+        private final int chunkX, chunkZ, radius;
+        private final long seed;
+        private final DimensionType dimension;
+
+        @Nullable private final VeinSavedData savedData;
+
+        private volatile boolean cancelled;
+        private final List<VeinRecord> pending;
+        private List<VeinRecord> page;
+        private int found;
+        private boolean truncated; // If the search stopped at the maximum number of results, with more veins left to report
+
+        private Search(CommandSource source, UUID key, VeinFilter filter, BlockPos center, int radius)
+        {
+            this.source = source;
+            this.key = key;
+            this.filter = filter;
+            this.center = center;
+            this.chunkX = center.getX() >> 4;
+            this.chunkZ = center.getZ() >> 4;
+            this.radius = radius;
+            this.seed = source.getWorld().getSeed();
+            this.dimension = source.getWorld().getDimension().getType();
+            this.savedData = VeinSavedData.get(dimension);
+            this.pending = new ArrayList<>();
+            this.page = new ArrayList<>();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                search();
+                if (!cancelled)
+                {
+                    sendPage();
+                    final int total = found;
+                    final String message = truncated ? ".command.find_veins_truncated" : ".command.find_veins_done";
+                    source.getServer().execute(() -> source.sendFeedback(new TranslationTextComponent(MOD_ID + message, total), true));
+                }
+            }
+            finally
+            {
+                SEARCHES.remove(key, this);
+            }
+        }
+
+        private void search()
+        {
+            // Search in square shells of rings, each of which is scanned in parallel
+            int inner = -1;
+            while (inner < radius && !cancelled && found < MAX_RESULTS)
+            {
+                final int outer = Math.min(radius, inner + SHELL_WIDTH);
+                if (inner < 0)
+                {
+                    searchArea(chunkX - outer, chunkZ - outer, chunkX + outer, chunkZ + outer);
+                }
+                else
+                {
+                    // The four sides of the shell between the inner and outer squares
+                    searchArea(chunkX - outer, chunkZ - outer, chunkX + outer, chunkZ - inner - 1);
+                    searchArea(chunkX - outer, chunkZ + inner + 1, chunkX + outer, chunkZ + outer);
+                    searchArea(chunkX - outer, chunkZ - inner, chunkX - inner - 1, chunkZ + inner);
+                    searchArea(chunkX + inner + 1, chunkZ - inner, chunkX + outer, chunkZ + inner);
+                }
+                inner = outer;
+
+                // Every vein closer than the nearest unsearched chunk has been found
+                report(outer < radius ? (long) outer * 16 : Long.MAX_VALUE);
+            }
+            if (found >= MAX_RESULTS && (inner < radius || !pending.isEmpty()))
+            {
+                truncated = true;
+            }
+        }
+
+        private void searchArea(int minX, int minZ, int maxX, int maxZ)
+        {
+            if (cancelled)
+            {
+                return;
+            }
+            if (savedData == null)
+            {
+                VeinScanner.scan(minX, minZ, maxX, maxZ, seed, filter).forEach(this::addVein);
+                return;
+            }
+
+            // Chunks which have already generated are read from the saved records, and only the remaining chunks are rolled
+            final Long2ObjectMap<List<VeinRecord>> recorded = savedData.getVeins(minX, minZ, maxX, maxZ);
+            for (Long2ObjectMap.Entry<List<VeinRecord>> entry : recorded.long2ObjectEntrySet())
+            {
+                if (filter.test(ChunkPos.getX(entry.getLongKey()), ChunkPos.getZ(entry.getLongKey())))
+                {
+                    entry.getValue().stream().filter(record -> filter.test(record) && matchesDimension(record)).forEach(pending::add);
+                }
+            }
+            VeinScanner.scan(minX, minZ, maxX, maxZ, seed, filter.excludingChunks(recorded::containsKey)).forEach(this::addVein);
+        }
+
+        private void addVein(Vein<?> vein)
+        {
+            if (vein.getType().matchesDimension(dimension))
+            {
+                final VeinRecord record = VeinRecord.of(vein);
+                if (record != null)
+                {
+                    pending.add(record);
+                }
+            }
+        }
+
+        /**
+         * Records are kept for removed vein types, which can't be checked, but otherwise match the dimension they were recorded in
+         */
+        private boolean matchesDimension(VeinRecord record)
+        {
+            final VeinType<?> type = VeinManager.INSTANCE.getVein(record.getType());
+            return type == null || type.matchesDimension(dimension);
+        }
+
+        /**
+         * Reports the pending veins within a horizontal distance of the center, closest first
+         */
+        private void report(long maxDistance)
+        {
+            pending.sort(Comparator.comparingLong(this::getDistanceSq));
+            final long maxDistanceSq = maxDistance == Long.MAX_VALUE ? Long.MAX_VALUE : maxDistance * maxDistance;
+            int reported = 0;
+            while (reported < pending.size() && getDistanceSq(pending.get(reported)) <= maxDistanceSq && found < MAX_RESULTS)
+            {
+                page.add(pending.get(reported++));
+                found++;
+                if (page.size() >= PAGE_SIZE)
+                {
+                    sendPage();
+                }
+            }
+            pending.subList(0, reported).clear();
+        }
+
+        private long getDistanceSq(VeinRecord record)
+        {
+            final long dx = record.getPos().getX() - center.getX(), dz = record.getPos().getZ() - center.getZ();
+            return dx * dx + dz * dz;
+        }
+
+        private void sendPage()
+        {
+            if (!page.isEmpty())
+            {
+                final List<VeinRecord> veins = page;
+                page = new ArrayList<>();
+                source.getServer().execute(() -> {
+                    if (!cancelled)
                     {
-                        source.getEntity().sendMessage(TextComponentUtils.updateForEntity(source, resultText.appendSibling(tpText), source.getEntity(), 0));
+                        veins.forEach(vein -> sendVein(source, vein));
                     }
-                }
-                catch (JsonParseException e) { /* Ignore, it shouldn't happen */ }
+                });
             }
         }
-        return 1;
     }
 }
@@ -0,0 +1,77 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.command;
+
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.Commands;
+import net.minecraft.command.arguments.DimensionArgument;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.ITextComponent;
+import net.minecraft.util.text.TranslationTextComponent;
+import net.minecraft.world.dimension.DimensionType;
+
+import com.alcatrazescapee.oreveins.world.pregen.Pregenerator;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+
+import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
+
+public final class PregenCommand
+{
+    public static void register(CommandDispatcher<CommandSource> dispatcher)
+    {
+        dispatcher.register(
+            Commands.literal("oreveins").requires(source -> source.hasPermissionLevel(2))
+                .then(Commands.literal("pregen")
+                    .then(Commands.literal("stop")
+                        .executes(cmd -> stop(cmd.getSource())))
+                    .then(Commands.literal("status")
+                        .executes(cmd -> status(cmd.getSource())))
+                    .then(Commands.argument("radius", IntegerArgumentType.integer(1, 5000))
+                        .executes(cmd -> start(cmd.getSource(), IntegerArgumentType.getInteger(cmd, "radius"), cmd.getSource().getWorld().getDimension().getType()))
+                        .then(Commands.argument("dimension", DimensionArgument.getDimension())
+                            .executes(cmd -> start(cmd.getSource(), IntegerArgumentType.getInteger(cmd, "radius"), DimensionArgument.getDimensionArgument(cmd, "dimension")))
+                        )
+                    )
+                )
+        );
+    }
+
+    private static int start(CommandSource source, int radius, DimensionType dimension)
+    {
+        final BlockPos pos = new BlockPos(source.getPos());
+        Pregenerator.INSTANCE.start(source.getServer(), dimension, pos.getX() >> 4, pos.getZ() >> 4, radius);
+        source.sendFeedback(new TranslationTextComponent(MOD_ID + ".command.pregen_started", (2 * radius + 1) * (2 * radius + 1), DimensionType.getKey(dimension)), true);
+        return 1;
+    }
+
+    private static int stop(CommandSource source)
+    {
+        if (Pregenerator.INSTANCE.stop(source.getServer()))
+        {
+            source.sendFeedback(new TranslationTextComponent(MOD_ID + ".command.pregen_stopped"), true);
+        }
+        else
+        {
+            source.sendErrorMessage(new TranslationTextComponent(MOD_ID + ".command.pregen_not_running"));
+        }
+        return 1;
+    }
+
+    private static int status(CommandSource source)
+    {
+        final ITextComponent status = Pregenerator.INSTANCE.getStatus();
+        if (status != null)
+        {
+            source.sendFeedback(status, false);
+        }
+        else
+        {
+            source.sendErrorMessage(new TranslationTextComponent(MOD_ID + ".command.pregen_not_running"));
+        }
+        return 1;
+    }
+}
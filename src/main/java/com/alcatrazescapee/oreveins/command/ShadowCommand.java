@@ -0,0 +1,30 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.command;
+
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.Commands;
+
+import com.alcatrazescapee.oreveins.world.VeinShadow;
+import com.mojang.brigadier.CommandDispatcher;
+
+public final class ShadowCommand
+{
+    public static void register(CommandDispatcher<CommandSource> dispatcher)
+    {
+        dispatcher.register(
+            Commands.literal("oreveins").requires(source -> source.hasPermissionLevel(2))
+                .then(Commands.literal("shadow")
+                    .executes(cmd -> status(cmd.getSource())))
+        );
+    }
+
+    private static int status(CommandSource source)
+    {
+        source.sendFeedback(VeinShadow.INSTANCE.getStatus(), false);
+        return 1;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.util.collections;
+
+import java.util.Collection;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+
+/**
+ * An immutable set of block states, stored as a bitset indexed by the global block state id.
+ * Membership checks are a single array lookup, rather than hashing the state.
+ */
+public final class BlockStateSet
+{
+    public static final BlockStateSet EMPTY = new BlockStateSet(new long[0], 0);
+
+    public static BlockStateSet of(Collection<BlockState> states)
+    {
+        int maxId = -1;
+        for (BlockState state : states)
+        {
+            maxId = Math.max(maxId, Block.getStateId(state));
+        }
+        if (maxId < 0)
+        {
+            return EMPTY;
+        }
+
+        final long[] bits = new long[(maxId >> 6) + 1];
+        int size = 0;
+        for (BlockState state : states)
+        {
+            final int id = Block.getStateId(state);
+            if (id >= 0 && (bits[id >> 6] & (1L << id)) == 0)
+            {
+                bits[id >> 6] |= 1L << id;
+                size++;
+            }
+        }
+        return new BlockStateSet(bits, size);
+    }
+
+    private final long[] bits;
+    private final int size;
+
+    private BlockStateSet(long[] bits, int size)
+    {
+        this.bits = bits;
+        this.size = size;
+    }
+
+    public boolean contains(BlockState state)
+    {
+        return contains(Block.getStateId(state));
+    }
+
+    /**
+     * @param id a global block state id, as returned by {@link Block#getStateId(BlockState)}
+     */
+    public boolean contains(int id)
+    {
+        final int index = id >> 6;
+        return id >= 0 && index < bits.length && (bits[index] & (1L << id)) != 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+}
@@ -33,7 +33,17 @@ public enum BlockStatePredicateDeserializer implements JsonDeserializer<Predicat
             {
                 subPredicates.add(context.deserialize(subElement, new TypeToken<Predicate<BlockState>>() {}.getType()));
             }
-            return stateIn -> subPredicates.stream().anyMatch(predicate -> predicate.test(stateIn));
+            @SuppressWarnings("unchecked") final Predicate<BlockState>[] predicates = subPredicates.toArray(new Predicate[0]);
+            return stateIn -> {
+                for (Predicate<BlockState> predicate : predicates)
+                {
+                    if (predicate.test(stateIn))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            };
         }
         else if (json.isJsonObject())
         {
@@ -50,15 +60,16 @@ public enum BlockStatePredicateDeserializer implements JsonDeserializer<Predicat
     {
         if (value.startsWith("#"))
         {
-            String tagName = value.substring(1);
-            Tag<Block> tag = BlockTags.getCollection().get(new ResourceLocation(tagName));
-            if (tag != null)
+            ResourceLocation tagName = new ResourceLocation(value.substring(1));
+            if (BlockTags.getCollection().get(tagName) != null)
             {
+                // Use a wrapper, which follows the current tag collection, so this stays correct if the vein is kept across a reload
+                Tag<Block> tag = new BlockTags.Wrapper(tagName);
                 return stateIn -> tag.contains(stateIn.getBlock());
             }
             else
             {
-                throw new JsonParseException("Unknown tag: " + tag);
+                throw new JsonParseException("Unknown tag: " + tagName);
             }
         }
         else
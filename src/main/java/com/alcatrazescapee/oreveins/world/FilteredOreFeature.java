@@ -0,0 +1,80 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import java.util.Random;
+
+import com.mojang.datafixers.Dynamic;
+import com.mojang.datafixers.types.DynamicOps;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.gen.ChunkGenerator;
+import net.minecraft.world.gen.GenerationSettings;
+import net.minecraft.world.gen.feature.ConfiguredFeature;
+import net.minecraft.world.gen.feature.DecoratedFeatureConfig;
+import net.minecraft.world.gen.feature.Feature;
+
+/**
+ * Wraps a vanilla ore feature, including its placement, so it can be disabled without modifying the biome's feature list.
+ * The check is made before the wrapped feature runs, so a disabled feature does no placement work at all.
+ * The config extends {@link DecoratedFeatureConfig}, with the same ore feature and placement as the wrapped feature, so other mods which look for ore features by their config still find them.
+ *
+ * @see VanillaFeatureManager
+ */
+public class FilteredOreFeature extends Feature<FilteredOreFeature.FilteredConfig>
+{
+    public FilteredOreFeature()
+    {
+        super(FilteredConfig::deserialize);
+    }
+
+    @Override
+    public boolean place(IWorld worldIn, ChunkGenerator<? extends GenerationSettings> generator, Random rand, BlockPos pos, FilteredConfig config)
+    {
+        if (VanillaFeatureManager.isDisabled(config.state))
+        {
+            return false;
+        }
+        return config.original.place(worldIn, generator, rand, pos);
+    }
+
+    public static class FilteredConfig extends DecoratedFeatureConfig
+    {
+        public static <T> FilteredConfig deserialize(Dynamic<T> dynamic)
+        {
+            ConfiguredFeature<?, ?> feature = ConfiguredFeature.deserialize(dynamic);
+            BlockState state = VanillaFeatureManager.getOreState(feature);
+            if (state == null)
+            {
+                throw new IllegalArgumentException("Not an ore feature: " + feature.feature.getRegistryName());
+            }
+            return new FilteredConfig(feature, state);
+        }
+
+        public final ConfiguredFeature<?, ?> original;
+        public final BlockState state;
+
+        /**
+         * @param original a vanilla ore feature, as checked by {@link VanillaFeatureManager#getOreState(ConfiguredFeature)}
+         */
+        public FilteredConfig(ConfiguredFeature<?, ?> original, BlockState state)
+        {
+            super(((DecoratedFeatureConfig) original.config).feature, ((DecoratedFeatureConfig) original.config).decorator);
+            this.original = original;
+            this.state = state;
+        }
+
+        /**
+         * The wrapped feature is serialized as is, and the ore state is found from it again when deserializing
+         */
+        @Override
+        public <T> Dynamic<T> serialize(DynamicOps<T> ops)
+        {
+            return original.serialize(ops);
+        }
+    }
+}
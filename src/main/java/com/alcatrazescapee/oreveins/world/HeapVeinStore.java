@@ -0,0 +1,80 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import com.alcatrazescapee.oreveins.world.vein.VeinSnapshot;
+
+/**
+ * Stores vein cache entries on the heap, bounded by a number of chunks
+ */
+final class HeapVeinStore implements VeinStore
+{
+    private final Cache<Long, VeinCache.ChunkVeins> cache;
+
+    HeapVeinStore(int maximumSize)
+    {
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+            .recordStats()
+            .build();
+    }
+
+    @Nullable
+    @Override
+    public VeinCache.ChunkVeins get(long key)
+    {
+        return cache.getIfPresent(key);
+    }
+
+    @Override
+    public void put(long key, VeinCache.ChunkVeins veins)
+    {
+        cache.put(key, veins);
+    }
+
+    @Override
+    public boolean contains(long key, VeinSnapshot snapshot)
+    {
+        final VeinCache.ChunkVeins veins = cache.asMap().get(key);
+        return veins != null && veins.getSnapshot() == snapshot;
+    }
+
+    @Override
+    public void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public long size()
+    {
+        return cache.size();
+    }
+
+    @Override
+    public long getSizeInBytes()
+    {
+        // An estimate, which walks every entry, so this should only be used for reporting
+        long bytes = 0;
+        for (VeinCache.ChunkVeins veins : cache.asMap().values())
+        {
+            bytes += veins.getSizeInBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public double hitRate()
+    {
+        return cache.stats().hitRate();
+    }
+}
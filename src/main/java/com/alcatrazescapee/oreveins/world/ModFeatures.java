@@ -17,4 +17,5 @@ public class ModFeatures
     public static final DeferredRegister<Feature<?>> FEATURES = new DeferredRegister<>(ForgeRegistries.FEATURES, MOD_ID);
 
     public static final RegistryObject<VeinsFeature> VEINS = FEATURES.register("veins", VeinsFeature::new);
+    public static final RegistryObject<FilteredOreFeature> FILTERED_ORE = FEATURES.register("filtered_ore", FilteredOreFeature::new);
 }
@@ -0,0 +1,336 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.util.math.ChunkPos;
+
+import com.alcatrazescapee.oreveins.world.vein.PackedVeins;
+import com.alcatrazescapee.oreveins.world.vein.VeinSnapshot;
+
+/**
+ * Stores vein cache entries outside of the heap, in direct buffers, bounded by a number of bytes.
+ * Chunks are grouped into regions of 32 x 32 chunks, each with a single slab which entries are appended to. When a slab is full, its live entries are copied to a new, larger slab. Slabs are never larger than the limit.
+ * When the limit is exceeded, whole regions are evicted, least recently used first within each stripe.
+ *
+ * Regions are split between a number of stripes, each with its own lock, so threads working on different regions don't contend. Eviction locks one stripe at a time.
+ * Written entries are never modified, so a read only holds the lock long enough to find the entry, and the entry is decoded after the lock is released.
+ *
+ * Entries are laid out as: length (int), snapshot version (int), then the packed veins of each type in the snapshot.
+ * Entries are read back with the snapshot they were written with, so they can be migrated by {@link VeinCache} after a reload, the same as on heap entries.
+ *
+ * Note that evicted slabs are only returned to the system when they are garbage collected.
+ */
+final class OffHeapVeinStore implements VeinStore
+{
+    private static final int REGION_SHIFT = 5;
+    private static final int MIN_SLAB_SIZE = 1 << 16;
+    private static final int STRIPES = 16;
+
+    private final long maximumBytes;
+    private final Stripe[] stripes;
+    private final Int2ObjectMap<VeinSnapshot> snapshots; // Guarded by itself
+    private final AtomicLong usedBytes;
+    private final AtomicInteger nextEviction;
+    private final LongAdder hits, misses;
+    private int latestVersion; // Guarded by snapshots
+
+    OffHeapVeinStore(long maximumBytes)
+    {
+        this.maximumBytes = maximumBytes;
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+        {
+            stripes[i] = new Stripe();
+        }
+        this.snapshots = new Int2ObjectOpenHashMap<>();
+        this.usedBytes = new AtomicLong();
+        this.nextEviction = new AtomicInteger();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    @Nullable
+    @Override
+    public VeinCache.ChunkVeins get(long key)
+    {
+        final long regionKey = getRegionKey(key);
+        final Stripe stripe = getStripe(regionKey);
+        final ByteBuffer buffer;
+        synchronized (stripe)
+        {
+            final Region region = stripe.regions.get(regionKey);
+            final int offset = region != null ? region.offsets.get(key) : -1;
+            if (offset == -1)
+            {
+                misses.increment();
+                return null;
+            }
+            buffer = region.slab.duplicate();
+            buffer.position(offset + 4);
+        }
+
+        // The duplicate keeps the slab alive if the region is resized or evicted, and the entry bytes are never changed once written
+        final VeinSnapshot snapshot = getSnapshot(buffer.getInt());
+        if (snapshot == null)
+        {
+            misses.increment();
+            return null;
+        }
+        final PackedVeins[] byType = new PackedVeins[snapshot.size()];
+        for (int i = 0; i < byType.length; i++)
+        {
+            byType[i] = PackedVeins.read(buffer, snapshot.getVein(i));
+        }
+        hits.increment();
+        return new VeinCache.ChunkVeins(snapshot, byType);
+    }
+
+    @Override
+    public void put(long key, VeinCache.ChunkVeins veins)
+    {
+        final VeinSnapshot snapshot = veins.getSnapshot();
+        int length = 8;
+        for (int i = 0; i < snapshot.size(); i++)
+        {
+            length += veins.getVeins(i).getSerializedSize();
+        }
+        if (length > maximumBytes)
+        {
+            return;
+        }
+        addSnapshot(snapshot);
+
+        final long regionKey = getRegionKey(key);
+        final Stripe stripe = getStripe(regionKey);
+        synchronized (stripe)
+        {
+            final Region region = stripe.regions.computeIfAbsent(regionKey, k -> new Region());
+            final int previous = region.offsets.remove(key);
+            if (previous != -1)
+            {
+                region.liveBytes -= region.slab.getInt(previous);
+            }
+            if (region.slab == null || region.slab.remaining() < length)
+            {
+                resize(region, length);
+            }
+
+            final int offset = region.slab.position();
+            region.slab.putInt(length);
+            region.slab.putInt(snapshot.getVersion());
+            for (int i = 0; i < snapshot.size(); i++)
+            {
+                veins.getVeins(i).write(region.slab, snapshot.getVein(i));
+            }
+            region.offsets.put(key, offset);
+            region.liveBytes += length;
+        }
+
+        evict();
+    }
+
+    @Override
+    public boolean contains(long key, VeinSnapshot snapshot)
+    {
+        final long regionKey = getRegionKey(key);
+        final Stripe stripe = getStripe(regionKey);
+        synchronized (stripe)
+        {
+            final Region region = stripe.regions.get(regionKey);
+            final int offset = region != null ? region.offsets.get(key) : -1;
+            return offset != -1 && region.slab.getInt(offset + 4) == snapshot.getVersion();
+        }
+    }
+
+    @Override
+    public void invalidateAll()
+    {
+        for (Stripe stripe : stripes)
+        {
+            synchronized (stripe)
+            {
+                for (Region region : stripe.regions.values())
+                {
+                    usedBytes.addAndGet(-region.slab.capacity());
+                }
+                stripe.regions.clear();
+            }
+        }
+        synchronized (snapshots)
+        {
+            snapshots.clear();
+        }
+    }
+
+    @Override
+    public long size()
+    {
+        long size = 0;
+        for (Stripe stripe : stripes)
+        {
+            synchronized (stripe)
+            {
+                for (Region region : stripe.regions.values())
+                {
+                    size += region.offsets.size();
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long getSizeInBytes()
+    {
+        return usedBytes.get();
+    }
+
+    @Override
+    public double hitRate()
+    {
+        final long hits = this.hits.sum(), misses = this.misses.sum();
+        return hits + misses == 0 ? 1 : (double) hits / (hits + misses);
+    }
+
+    private long getRegionKey(long key)
+    {
+        return ChunkPos.asLong(ChunkPos.getX(key) >> REGION_SHIFT, ChunkPos.getZ(key) >> REGION_SHIFT);
+    }
+
+    private Stripe getStripe(long regionKey)
+    {
+        return stripes[(int) HashCommon.mix(regionKey) & (STRIPES - 1)];
+    }
+
+    @Nullable
+    private VeinSnapshot getSnapshot(int version)
+    {
+        synchronized (snapshots)
+        {
+            return snapshots.get(version);
+        }
+    }
+
+    /**
+     * Keeps the snapshots needed to read entries back. Only the latest two are kept, and entries from older snapshots will be misses.
+     */
+    private void addSnapshot(VeinSnapshot snapshot)
+    {
+        synchronized (snapshots)
+        {
+            if (snapshot.getVersion() > latestVersion)
+            {
+                final IntIterator iterator = snapshots.keySet().iterator();
+                while (iterator.hasNext())
+                {
+                    if (iterator.nextInt() < latestVersion)
+                    {
+                        iterator.remove();
+                    }
+                }
+                latestVersion = snapshot.getVersion();
+            }
+            snapshots.putIfAbsent(snapshot.getVersion(), snapshot);
+        }
+    }
+
+    /**
+     * Copies the live entries of a region to a new slab, with room for at least an extra number of bytes.
+     * If the live entries and the extra bytes would not fit within the limit, the entries are dropped instead, so no slab is ever larger than the limit.
+     */
+    private void resize(Region region, int extra)
+    {
+        if ((long) region.liveBytes + extra > maximumBytes)
+        {
+            region.offsets.clear();
+            region.liveBytes = 0;
+        }
+
+        final int required = region.liveBytes + extra;
+        final int capacity = (int) Math.min(Math.max(MIN_SLAB_SIZE, Long.highestOneBit(required - 1L) << 1), Math.min(maximumBytes, Integer.MAX_VALUE));
+        final ByteBuffer slab = ByteBuffer.allocateDirect(capacity);
+        if (region.slab != null)
+        {
+            for (Long2IntMap.Entry entry : region.offsets.long2IntEntrySet())
+            {
+                final int offset = entry.getIntValue();
+                final ByteBuffer source = region.slab.duplicate();
+                source.limit(offset + region.slab.getInt(offset));
+                source.position(offset);
+                entry.setValue(slab.position());
+                slab.put(source);
+            }
+            usedBytes.addAndGet(-region.slab.capacity());
+        }
+        usedBytes.addAndGet(capacity);
+        region.slab = slab;
+    }
+
+    /**
+     * Evicts regions until the used bytes are within the limit. Stripes are visited in turn, removing the least recently used region of each, and only one stripe is locked at a time.
+     * This may evict the region that was just written to, if it is the only one left.
+     */
+    private void evict()
+    {
+        int empty = 0;
+        while (usedBytes.get() > maximumBytes && empty < STRIPES)
+        {
+            final Stripe stripe = stripes[nextEviction.getAndIncrement() & (STRIPES - 1)];
+            synchronized (stripe)
+            {
+                final Iterator<Region> iterator = stripe.regions.values().iterator();
+                if (iterator.hasNext())
+                {
+                    usedBytes.addAndGet(-iterator.next().slab.capacity());
+                    iterator.remove();
+                    empty = 0;
+                }
+                else
+                {
+                    empty++;
+                }
+            }
+        }
+    }
+
+    private static final class Stripe
+    {
+        private final Map<Long, Region> regions; // In access order, so the least recently used region is evicted first
+
+        private Stripe()
+        {
+            this.regions = new LinkedHashMap<>(16, 0.75f, true);
+        }
+    }
+
+    private static final class Region
+    {
+        private final Long2IntOpenHashMap offsets;
+        private ByteBuffer slab;
+        private int liveBytes;
+
+        private Region()
+        {
+            this.offsets = new Long2IntOpenHashMap();
+            this.offsets.defaultReturnValue(-1);
+        }
+    }
+}
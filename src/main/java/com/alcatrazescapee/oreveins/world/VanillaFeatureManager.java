@@ -5,11 +5,12 @@
 
 package com.alcatrazescapee.oreveins.world;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.List;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
+import com.google.common.collect.ImmutableSet;
 import net.minecraft.block.BlockState;
-import net.minecraft.world.biome.Biome;
 import net.minecraft.world.gen.GenerationStage;
 import net.minecraft.world.gen.feature.*;
 import net.minecraftforge.registries.ForgeRegistries;
@@ -18,38 +19,66 @@ import com.alcatrazescapee.oreveins.Config;
 
 /**
  * Manages the removal and replacement of vanilla world gen features
- * Called on config reload
+ * Vanilla ore features are wrapped once at setup in a {@link FilteredOreFeature}, which checks the ore against the current set of disabled ores.
+ * On config reload, only that set is replaced, so biome feature lists are never modified while world gen threads may be reading them.
+ *
+ * Features are wrapped in place, once at setup and again before the server starts, which has some limits on ordering with other mods:
+ * - Ore features added to a biome after the server has started are never wrapped, and can't be disabled.
+ * - Wrapped features keep the config of the feature they wrap (see {@link FilteredOreFeature.FilteredConfig}), but their feature is no longer {@link Feature#DECORATED}, and they are not the same instance. Mods which find ore features by their config still see them, but mods which compare the feature or the instance will not.
  *
  * @author AlcatrazEscapee
  */
 public class VanillaFeatureManager
 {
-    private static final Map<Biome, List<ConfiguredFeature<?, ?>>> DISABLED_FEATURES = new HashMap<>();
-
-    private static Set<BlockState> disabledBlockStates;
-    private static boolean disableAll;
+    private static volatile Predicate<BlockState> disabledOres = state -> false;
 
-    public static void onConfigReloading()
+    /**
+     * Wraps the vanilla ore features of all biomes. Must be called on the main thread, before any world gen.
+     * Features which are already wrapped are skipped, so this is safe to call again to pick up features added later. It is called again before the server starts, while no world gen threads are running.
+     */
+    public static void setup()
     {
-        disabledBlockStates = Config.COMMON.disabledBlockStates();
-        disableAll = Config.COMMON.noOres.get();
-
         ForgeRegistries.BIOMES.forEach(biome -> {
-            List<ConfiguredFeature<?, ?>> features = DISABLED_FEATURES.computeIfAbsent(biome, key -> new ArrayList<>());
-
-            List<ConfiguredFeature<?, ?>> toReAdd = features.stream().filter(x -> !shouldDisable(x)).collect(Collectors.toList());
-            List<ConfiguredFeature<?, ?>> toRemove = biome.getFeatures(GenerationStage.Decoration.UNDERGROUND_ORES).stream().filter(VanillaFeatureManager::shouldDisable).collect(Collectors.toList());
+            List<ConfiguredFeature<?, ?>> features = biome.getFeatures(GenerationStage.Decoration.UNDERGROUND_ORES);
+            for (int i = 0; i < features.size(); i++)
+            {
+                ConfiguredFeature<?, ?> feature = features.get(i);
+                if (feature.config instanceof FilteredOreFeature.FilteredConfig)
+                {
+                    continue;
+                }
+                BlockState state = getOreState(feature);
+                if (state != null)
+                {
+                    features.set(i, ModFeatures.FILTERED_ORE.get().withConfiguration(new FilteredOreFeature.FilteredConfig(feature, state)));
+                }
+            }
+        });
+        onConfigReloading();
+    }
 
-            features.addAll(toRemove);
-            features.removeAll(toReAdd);
+    public static void onConfigReloading()
+    {
+        if (Config.COMMON.noOres.get())
+        {
+            disabledOres = state -> true;
+        }
+        else
+        {
+            disabledOres = ImmutableSet.copyOf(Config.COMMON.disabledBlockStates())::contains;
+        }
+    }
 
-            List<ConfiguredFeature<?, ?>> currentFeatures = biome.getFeatures(GenerationStage.Decoration.UNDERGROUND_ORES);
-            currentFeatures.addAll(toReAdd);
-            currentFeatures.removeAll(toRemove);
-        });
+    public static boolean isDisabled(BlockState state)
+    {
+        return disabledOres.test(state);
     }
 
-    private static boolean shouldDisable(ConfiguredFeature<?, ?> feature)
+    /**
+     * @return the ore block state placed by a vanilla ore feature, or null if the feature is not a vanilla ore feature
+     */
+    @Nullable
+    public static BlockState getOreState(ConfiguredFeature<?, ?> feature)
     {
         if (feature.config instanceof DecoratedFeatureConfig)
         {
@@ -59,11 +88,10 @@ public class VanillaFeatureManager
                 IFeatureConfig featureConfig = ((DecoratedFeatureConfig) feature.config).feature.config;
                 if (featureConfig instanceof OreFeatureConfig)
                 {
-                    OreFeatureConfig oreConfig = (OreFeatureConfig) featureConfig;
-                    return disableAll || disabledBlockStates.contains(oreConfig.state);
+                    return ((OreFeatureConfig) featureConfig).state;
                 }
             }
         }
-        return false;
+        return null;
     }
 }
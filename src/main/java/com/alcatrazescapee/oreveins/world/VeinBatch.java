@@ -0,0 +1,187 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.util.math.BlockPos;
+
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinKernel;
+
+/**
+ * The chances for all veins overlapping a single chunk, computed up front.
+ * Veins are grouped by kernel, and each group's origins and y ranges are copied into primitive arrays, so each kernel runs over all of its veins and columns in one tight loop.
+ * Placement then reads the chances from here, in the same order as before, so the random numbers used for placement are unchanged.
+ *
+ * Buffers are reused per thread, as each world gen thread only places one chunk at a time. Buffers which grew past a limit for an unusually large chunk are dropped once it is placed, so each thread doesn't hold on to its peak size.
+ */
+final class VeinBatch
+{
+    private static final ThreadLocal<VeinBatch> BUFFERS = ThreadLocal.withInitial(VeinBatch::new);
+    private static final int MAX_RETAINED_CHANCES = 1 << 20; // 4 MB
+    private static final int MAX_RETAINED_VEINS = 256; // 512 KB of offsets and max chances
+
+    /**
+     * Computes which columns each vein is in range of, and the chances for those columns.
+     * The returned batch is only valid until the next call on the same thread, and {@link #release()} must be called once it is no longer used.
+     *
+     * @param veins   the veins overlapping the chunk
+     * @param kernels the kernel for each vein
+     * @param filter  columns which are in range of a vein but fail this filter are treated as out of range, and no chances are computed for them
+     */
+    static VeinBatch prepare(List<Vein<?>> veins, VeinKernel[] kernels, int chunkMinX, int chunkMinZ, ColumnFilter filter)
+    {
+        final VeinBatch batch = BUFFERS.get();
+        batch.compute(veins, kernels, chunkMinX, chunkMinZ, filter);
+        return batch;
+    }
+
+    private int[] offsets; // Offset into the chances for each [vein, column], or -1 if the vein is not in range of the column
+    private int[] minYs;
+    private float[] chances;
+    private float[] maxChances; // The maximum chance for each [vein, column]
+
+    private VeinBatch()
+    {
+        this.offsets = new int[0];
+        this.minYs = new int[0];
+        this.chances = new float[0];
+        this.maxChances = new float[0];
+    }
+
+    /**
+     * @param vein   the index of the vein
+     * @param column the column, as {@code (x - chunkMinX) << 4 | (z - chunkMinZ)}
+     */
+    boolean inRange(int vein, int column)
+    {
+        return offsets[(vein << 8) | column] != -1;
+    }
+
+    /**
+     * Must only be called if the vein is in range of the column
+     */
+    float getChanceToGenerate(int vein, int column, int y)
+    {
+        return chances[offsets[(vein << 8) | column] + y - minYs[vein]];
+    }
+
+    /**
+     * The maximum chance over a column. Must only be called if the vein is in range of the column
+     */
+    float getMaxChance(int vein, int column)
+    {
+        return maxChances[(vein << 8) | column];
+    }
+
+    /**
+     * Drops any buffers which are larger than should be held between chunks
+     */
+    void release()
+    {
+        if (chances.length > MAX_RETAINED_CHANCES)
+        {
+            chances = new float[0];
+        }
+        if (minYs.length > MAX_RETAINED_VEINS)
+        {
+            offsets = new int[0];
+            minYs = new int[0];
+            maxChances = new float[0];
+        }
+    }
+
+    private void compute(List<Vein<?>> veins, VeinKernel[] kernels, int chunkMinX, int chunkMinZ, ColumnFilter filter)
+    {
+        final int count = veins.size();
+        if (offsets.length < count << 8)
+        {
+            offsets = new int[count << 8];
+            maxChances = new float[count << 8];
+            minYs = new int[count];
+        }
+        Arrays.fill(offsets, 0, count << 8, -1);
+
+        // Group the veins by kernel, keeping the first seen order
+        final Map<VeinKernel, List<Integer>> groups = new IdentityHashMap<>();
+        final List<VeinKernel> order = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            groups.computeIfAbsent(kernels[i], kernel -> {
+                order.add(kernel);
+                return new ArrayList<>();
+            }).add(i);
+        }
+
+        int size = 0;
+        for (VeinKernel kernel : order)
+        {
+            final List<Integer> group = groups.get(kernel);
+            final int groupSize = group.size();
+
+            // Struct of arrays for this group
+            final int[] index = new int[groupSize], originX = new int[groupSize], originY = new int[groupSize], originZ = new int[groupSize], minY = new int[groupSize], maxY = new int[groupSize];
+            for (int i = 0; i < groupSize; i++)
+            {
+                final Vein<?> vein = veins.get(group.get(i));
+                final BlockPos origin = vein.getPos();
+                index[i] = group.get(i);
+                originX[i] = origin.getX();
+                originY[i] = origin.getY();
+                originZ[i] = origin.getZ();
+                minY[i] = vein.getType().getMinY();
+                maxY[i] = vein.getType().getMaxY();
+                minYs[index[i]] = minY[i];
+            }
+
+            for (int i = 0; i < groupSize; i++)
+            {
+                final Vein<?> vein = veins.get(index[i]);
+                final int height = maxY[i] - minY[i] + 1;
+                for (int column = 0; column < 256; column++)
+                {
+                    final int x = chunkMinX + (column >> 4), z = chunkMinZ + (column & 15);
+                    if (kernel.inRange(vein, x, z) && filter.test(vein, column))
+                    {
+                        ensureCapacity(size + height);
+                        offsets[(index[i] << 8) | column] = size;
+                        kernel.getChances(vein, originX[i], originY[i], originZ[i], x, z, minY[i], maxY[i], chances, size);
+
+                        float maxChance = 0;
+                        for (int j = size; j < size + height; j++)
+                        {
+                            maxChance = Math.max(maxChance, chances[j]);
+                        }
+                        maxChances[(index[i] << 8) | column] = maxChance;
+                        size += height;
+                    }
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (chances.length < capacity)
+        {
+            chances = Arrays.copyOf(chances, Math.max(capacity, chances.length * 2));
+        }
+    }
+
+    @FunctionalInterface
+    interface ColumnFilter
+    {
+        /**
+         * @param column the column, as {@code (x - chunkMinX) << 4 | (z - chunkMinZ)}
+         */
+        boolean test(Vein<?> vein, int column);
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.text.ITextComponent;
+import net.minecraft.util.text.TranslationTextComponent;
+
+import com.alcatrazescapee.oreveins.Config;
+import com.alcatrazescapee.oreveins.world.vein.PackedVeins;
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinManager;
+import com.alcatrazescapee.oreveins.world.vein.VeinSnapshot;
+import com.alcatrazescapee.oreveins.world.vein.VeinType;
+
+import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
+
+/**
+ * A bounded cache of the veins which originate in each chunk.
+ * Every chunk decoration needs the veins of all chunks within the chunk radius, so without this each chunk's veins would be rolled (2r + 1)^2 times.
+ * This is accessed from world gen threads, so everything here must be thread safe.
+ *
+ * Veins are packed into primitive arrays (see {@link PackedVeins}), so the cache can hold many more chunks in the same heap.
+ * For very large worlds, the cache can instead be held outside of the heap, see {@link OffHeapVeinStore}.
+ * Veins are stored per vein type. When the vein types are reloaded, entries are kept and migrated to the new snapshot the next time they are accessed: only the types which were added or changed are rolled again.
+ */
+public final class VeinCache
+{
+    public static final VeinCache INSTANCE = new VeinCache();
+
+    private volatile VeinStore store;
+    private volatile long seed;
+    private int maximumSize, offHeapLimit;
+
+    private VeinCache()
+    {
+        this.store = new HeapVeinStore(0);
+        this.maximumSize = 0;
+        this.offHeapLimit = 0;
+    }
+
+    /**
+     * Rebuilds the cache if the configured size has changed. Called after veins have reloaded.
+     * Otherwise the cache is kept, as entries for vein types which haven't changed are still valid
+     */
+    public synchronized void reset()
+    {
+        final int size = Config.COMMON.veinCacheSize.get(), limit = Config.COMMON.veinCacheOffHeapLimit.get();
+        if (size != maximumSize || limit != offHeapLimit)
+        {
+            maximumSize = size;
+            offHeapLimit = limit;
+            store = limit > 0 ? new OffHeapVeinStore(limit * 1024L * 1024L) : new HeapVeinStore(size);
+        }
+    }
+
+    /**
+     * Gets all veins that originate in chunks within a square radius of a center chunk
+     * This is used to decorate the center chunk, and records if the veins were all ready, see {@link VeinPrefetcher}
+     */
+    public List<Vein<?>> getNearbyVeins(VeinSnapshot snapshot, int chunkX, int chunkZ, long worldSeed, int radius)
+    {
+        final VeinStore store = getStore(worldSeed);
+        List<Vein<?>> veins = new ArrayList<>();
+        boolean ready = true;
+        for (int x = chunkX - radius; x <= chunkX + radius; x++)
+        {
+            for (int z = chunkZ - radius; z <= chunkZ + radius; z++)
+            {
+                final long key = ChunkPos.asLong(x, z);
+                ChunkVeins chunkVeins = store.get(key);
+                if (chunkVeins == null || chunkVeins.snapshot != snapshot)
+                {
+                    chunkVeins = compute(store, key, snapshot, x, z, worldSeed, chunkVeins);
+                    ready = false;
+                }
+                chunkVeins.addTo(veins);
+            }
+        }
+        VeinPrefetcher.INSTANCE.onDecorate(chunkX, chunkZ, ready);
+        return veins;
+    }
+
+    /**
+     * Gets the veins which originate in a single chunk, computing them if they are not present
+     * The returned list is an immutable view over packed veins, so each access creates a new vein object
+     */
+    public List<Vein<?>> getVeinsAtChunk(VeinSnapshot snapshot, int chunkX, int chunkZ, long worldSeed)
+    {
+        final VeinStore store = getStore(worldSeed);
+        final long key = ChunkPos.asLong(chunkX, chunkZ);
+        final ChunkVeins veins = store.get(key);
+        if (veins == null || veins.snapshot != snapshot)
+        {
+            return compute(store, key, snapshot, chunkX, chunkZ, worldSeed, veins);
+        }
+        return veins;
+    }
+
+    /**
+     * Computes the veins for all chunks in a radius if they are not already present, so the next access will be a cache hit.
+     */
+    public void warm(int chunkX, int chunkZ, long worldSeed, int radius)
+    {
+        final LongList chunks = new LongArrayList((2 * radius + 1) * (2 * radius + 1));
+        for (int x = chunkX - radius; x <= chunkX + radius; x++)
+        {
+            for (int z = chunkZ - radius; z <= chunkZ + radius; z++)
+            {
+                chunks.add(ChunkPos.asLong(x, z));
+            }
+        }
+        warm(chunks, worldSeed);
+    }
+
+    /**
+     * Computes the veins for each chunk which is not already present. Chunks which are present are skipped, without counting as a cache hit
+     */
+    public void warm(LongList chunks, long worldSeed)
+    {
+        final VeinSnapshot snapshot = VeinManager.INSTANCE.getSnapshot();
+        final VeinStore store = getStore(worldSeed);
+        for (int i = 0; i < chunks.size(); i++)
+        {
+            final long key = chunks.getLong(i);
+            if (!store.contains(key, snapshot))
+            {
+                compute(store, key, snapshot, ChunkPos.getX(key), ChunkPos.getZ(key), worldSeed, store.get(key));
+            }
+        }
+    }
+
+    public long size()
+    {
+        return store.size();
+    }
+
+    public double hitRate()
+    {
+        return store.hitRate();
+    }
+
+    public ITextComponent getStatus()
+    {
+        final VeinStore store = this.store;
+        final String used = String.format("%.1f", store.getSizeInBytes() / (1024.0 * 1024.0)), hitRate = String.format("%.1f", 100 * store.hitRate());
+        if (store instanceof OffHeapVeinStore)
+        {
+            return new TranslationTextComponent(MOD_ID + ".command.vein_cache_status_off_heap", store.size(), used, offHeapLimit, hitRate);
+        }
+        return new TranslationTextComponent(MOD_ID + ".command.vein_cache_status", store.size(), used, hitRate);
+    }
+
+    /**
+     * @param previous the entry for this chunk from a previous snapshot, if present
+     */
+    private ChunkVeins compute(VeinStore store, long key, VeinSnapshot snapshot, int chunkX, int chunkZ, long worldSeed, @Nullable ChunkVeins previous)
+    {
+        // Two threads may compute the same chunk at once, but as the result is deterministic this is harmless
+        final ChunkVeins veins = new ChunkVeins(snapshot, chunkX, chunkZ, worldSeed, previous);
+        if (snapshot.getVersion() >= VeinManager.INSTANCE.getSnapshot().getVersion())
+        {
+            // Don't let a reader with an outdated snapshot replace newer entries
+            store.put(key, veins);
+        }
+        return veins;
+    }
+
+    private VeinStore getStore(long worldSeed)
+    {
+        if (worldSeed != seed)
+        {
+            synchronized (this)
+            {
+                if (worldSeed != seed)
+                {
+                    // Veins are a function of the seed, so a new seed invalidates everything
+                    store.invalidateAll();
+                    seed = worldSeed;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * The veins of a single chunk, for one snapshot. The veins of each type are packed, and indexed by the type id in that snapshot.
+     * This is a view over all veins in the chunk, in type order. The start of each type in the view is kept, so indexing is a binary search over the types rather than a walk.
+     */
+    static final class ChunkVeins extends AbstractList<Vein<?>> implements RandomAccess
+    {
+        private final VeinSnapshot snapshot;
+        private final PackedVeins[] byType;
+        private final int[] offsets; // The index of the first vein of each type, then the size
+
+        /**
+         * @param previous the veins of the chunk from a previous snapshot, which are reused for any vein types that are in both snapshots
+         */
+        private ChunkVeins(VeinSnapshot snapshot, int chunkX, int chunkZ, long worldSeed, @Nullable ChunkVeins previous)
+        {
+            this(snapshot, createVeins(snapshot, chunkX, chunkZ, worldSeed, previous));
+        }
+
+        ChunkVeins(VeinSnapshot snapshot, PackedVeins[] byType)
+        {
+            final int[] offsets = new int[byType.length + 1];
+            for (int i = 0; i < byType.length; i++)
+            {
+                offsets[i + 1] = offsets[i] + byType[i].size();
+            }
+
+            this.snapshot = snapshot;
+            this.byType = byType;
+            this.offsets = offsets;
+        }
+
+        private static PackedVeins[] createVeins(VeinSnapshot snapshot, int chunkX, int chunkZ, long worldSeed, @Nullable ChunkVeins previous)
+        {
+            final PackedVeins[] byType = new PackedVeins[snapshot.size()];
+            if (snapshot.isLegacyRolling())
+            {
+                // Types can't be rolled on their own, so nothing from the previous snapshot can be reused
+                final List<List<Vein<?>>> veins = VeinsFeature.getLegacyVeinsByType(snapshot, chunkX, chunkZ, worldSeed);
+                for (int i = 0; i < byType.length; i++)
+                {
+                    byType[i] = PackedVeins.of(veins.get(i));
+                }
+                return byType;
+            }
+
+            int id = 0;
+            for (Map.Entry<ResourceLocation, VeinType<?>> entry : snapshot.getEntries())
+            {
+                final VeinType<?> type = entry.getValue();
+                final int previousId = previous != null && !previous.snapshot.isLegacyRolling() ? previous.snapshot.getId(type) : -1;
+                byType[id++] = previousId != -1 ? previous.byType[previousId] : PackedVeins.of(VeinsFeature.getVeinsAtChunk(chunkX, chunkZ, worldSeed, entry.getKey(), type));
+            }
+            return byType;
+        }
+
+        VeinSnapshot getSnapshot()
+        {
+            return snapshot;
+        }
+
+        /**
+         * @param id the id of a vein type in the snapshot
+         */
+        PackedVeins getVeins(int id)
+        {
+            return byType[id];
+        }
+
+        long getSizeInBytes()
+        {
+            long bytes = 16L + 16L + 4L * byType.length + 16L + 4L * offsets.length;
+            for (PackedVeins veins : byType)
+            {
+                // Empty and reused lists are shared, so this over counts
+                bytes += veins.getSizeInBytes();
+            }
+            return bytes;
+        }
+
+        /**
+         * Adds all veins in the chunk to a list, one type at a time
+         */
+        void addTo(List<Vein<?>> veins)
+        {
+            for (PackedVeins typeVeins : byType)
+            {
+                veins.addAll(typeVeins);
+            }
+        }
+
+        @Override
+        public Vein<?> get(int index)
+        {
+            if (index < 0 || index >= size())
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+
+            // Finds the last type which starts at or before the index. Empty types start at the same index as the next type, so this is never an empty type
+            int low = 0, high = byType.length - 1;
+            while (low < high)
+            {
+                final int mid = (low + high + 1) >>> 1;
+                if (offsets[mid] <= index)
+                {
+                    low = mid;
+                }
+                else
+                {
+                    high = mid - 1;
+                }
+            }
+            return byType[low].get(index - offsets[low]);
+        }
+
+        @Override
+        public int size()
+        {
+            return offsets[byType.length];
+        }
+    }
+}
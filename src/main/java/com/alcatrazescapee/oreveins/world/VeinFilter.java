@@ -0,0 +1,187 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongPredicate;
+import javax.annotation.Nullable;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinManager;
+import com.alcatrazescapee.oreveins.world.vein.VeinType;
+
+/**
+ * A filter for vein searches, which is applied while veins are being rolled.
+ * Vein types which cannot match are skipped entirely, and chunks which are out of range are never rolled.
+ * Which vein types generate the ore is computed once, when the filter is created, rather than for every chunk.
+ */
+public final class VeinFilter
+{
+    public static final VeinFilter ALL = new VeinFilter(null, null, Integer.MIN_VALUE, Integer.MAX_VALUE, BlockPos.ZERO, -1);
+
+    @Nullable private final VeinType<?> type;
+    @Nullable private final BlockState ore;
+    private final int minY, maxY;
+    private final BlockPos center;
+    private final long maxDistanceSq;
+    private final boolean possible;
+    @Nullable private final LongPredicate excludedChunks;
+
+    @Nullable private final ResourceLocation typeName;
+    private final Map<VeinType<?>, Boolean> generatesOre; // For each vein type, including child types, if it generates the ore
+    private final Set<ResourceLocation> oreTypeNames; // The names of all vein types which generate the ore
+
+    /**
+     * @param type        the vein type to match, or null for any type
+     * @param ore         an ore state which must be generated by the vein, or null for any ore
+     * @param minY        the minimum y position of the vein origin
+     * @param maxY        the maximum y position of the vein origin
+     * @param center      the center for distance checks
+     * @param maxDistance the maximum horizontal distance from the center to the vein origin, in blocks, or -1 for any distance
+     */
+    public VeinFilter(@Nullable VeinType<?> type, @Nullable BlockState ore, int minY, int maxY, BlockPos center, int maxDistance)
+    {
+        this.type = type;
+        this.ore = ore;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.center = center;
+        this.maxDistanceSq = maxDistance < 0 ? -1 : (long) maxDistance * maxDistance;
+        this.possible = ore == null || VeinManager.INSTANCE.isVeinOre(ore); // If no vein generates the ore, nothing needs to be rolled
+        this.excludedChunks = null;
+
+        this.typeName = type != null ? VeinManager.INSTANCE.getName(type) : null;
+        this.generatesOre = new ConcurrentHashMap<>();
+        this.oreTypeNames = new HashSet<>();
+        if (ore != null)
+        {
+            for (Map.Entry<ResourceLocation, VeinType<?>> entry : VeinManager.INSTANCE.getEntries())
+            {
+                if (generatesOre(entry.getValue()))
+                {
+                    oreTypeNames.add(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private VeinFilter(VeinFilter other, LongPredicate excludedChunks)
+    {
+        this.type = other.type;
+        this.ore = other.ore;
+        this.minY = other.minY;
+        this.maxY = other.maxY;
+        this.center = other.center;
+        this.maxDistanceSq = other.maxDistanceSq;
+        this.possible = other.possible;
+        this.excludedChunks = excludedChunks;
+        this.typeName = other.typeName;
+        this.generatesOre = other.generatesOre;
+        this.oreTypeNames = other.oreTypeNames;
+    }
+
+    /**
+     * @param excludedChunks a predicate on {@link ChunkPos#asLong(int, int)} for chunks which should not be rolled
+     * @return a copy of this filter which also skips the excluded chunks
+     */
+    public VeinFilter excludingChunks(LongPredicate excludedChunks)
+    {
+        return new VeinFilter(this, excludedChunks);
+    }
+
+    /**
+     * @return true if any vein originating in this chunk could match the filter
+     */
+    public boolean test(int chunkX, int chunkZ)
+    {
+        if (!possible || (excludedChunks != null && excludedChunks.test(ChunkPos.asLong(chunkX, chunkZ))))
+        {
+            return false;
+        }
+        if (maxDistanceSq >= 0)
+        {
+            // Distance to the closest point in the chunk
+            final long dx = Math.max(0, Math.max((chunkX << 4) - center.getX(), center.getX() - (chunkX << 4) - 15));
+            final long dz = Math.max(0, Math.max((chunkZ << 4) - center.getZ(), center.getZ() - (chunkZ << 4) - 15));
+            return dx * dx + dz * dz <= maxDistanceSq;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if any vein of this type could match the filter
+     */
+    public boolean test(VeinType<?> typeIn)
+    {
+        return (type == null || type == typeIn)
+            && generatesOre(typeIn)
+            && typeIn.getMinY() <= maxY && typeIn.getMaxY() >= minY;
+    }
+
+    /**
+     * @return true if this vein matches the filter
+     */
+    public boolean test(Vein<?> vein)
+    {
+        if (type != null && vein.getType() != type)
+        {
+            return false;
+        }
+        if (!generatesOre(vein.getType()))
+        {
+            return false;
+        }
+        return test(vein.getPos());
+    }
+
+    /**
+     * Tests a recorded vein. The vein type is matched by name, so records of types which are no longer loaded can only match filters without a type or ore.
+     *
+     * @return true if this vein matches the filter
+     */
+    public boolean test(VeinRecord record)
+    {
+        if (type != null && !record.getType().equals(typeName))
+        {
+            return false;
+        }
+        if (ore != null && !oreTypeNames.contains(record.getType()))
+        {
+            return false;
+        }
+        return test(record.getPos());
+    }
+
+    /**
+     * Child types of multiple veins are not part of the snapshot, so they are checked the first time they are seen
+     */
+    private boolean generatesOre(VeinType<?> typeIn)
+    {
+        return ore == null || generatesOre.computeIfAbsent(typeIn, key -> key.getOreStates().contains(ore));
+    }
+
+    private boolean test(BlockPos pos)
+    {
+        if (pos.getY() < minY || pos.getY() > maxY)
+        {
+            return false;
+        }
+        if (maxDistanceSq >= 0)
+        {
+            final long dx = pos.getX() - center.getX(), dz = pos.getZ() - center.getZ();
+            return dx * dx + dz * dz <= maxDistanceSq;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.dimension.DimensionType;
+import net.minecraft.world.server.ServerWorld;
+
+import com.alcatrazescapee.oreveins.Config;
+
+import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
+
+/**
+ * An on disk index of generated veins, laid out like region files, for queries over very large areas.
+ * Each file covers 32 x 32 chunks, and holds a header followed by fixed size records, which are appended as chunks are generated.
+ * Queries read the records through a read only mapping of each file, and only create objects for matching records, without touching the world.
+ * Each open file keeps one mapping, which is only replaced when the file has grown past it. At most 256 region files are held open at once, and the least recently used file is closed when another is opened. Mappings of closed files are released when they are garbage collected.
+ *
+ * All file access happens on a single index thread, so writes and queries never overlap.
+ * Appends are grouped by region until the index thread writes them, so the index thread has at most one queued write per region, however many chunks generate while it is busy.
+ *
+ * Header: [magic, version, record count, reserved] (4 ints)
+ * Record: [packed pos (long), type id (int), local chunk (short), horizontal size (short), vertical size (short), reserved (6 bytes)]
+ * Type ids refer to lines in the types.txt file in the same directory, which is append only, so ids never change.
+ */
+public final class VeinIndex
+{
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final int MAGIC = 0x4F564958; // OVIX
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 24;
+    private static final int REGION_BITS = 5;
+    private static final int MAX_OPEN_REGIONS = 256;
+
+    private static final Map<DimensionType, VeinIndex> LOADED = new ConcurrentHashMap<>();
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("OreVeins-Index").setDaemon(true).build());
+
+    /**
+     * Opens the index for a world, if it is enabled. Must be called on the server thread
+     */
+    public static void load(ServerWorld world)
+    {
+        if (Config.COMMON.veinIndex.get())
+        {
+            final File directory = new File(world.getDimension().getType().getDirectory(world.getSaveHandler().getWorldDirectory()), "data/" + MOD_ID + "_index");
+            LOADED.put(world.getDimension().getType(), new VeinIndex(directory.toPath()));
+        }
+    }
+
+    public static void unload(ServerWorld world)
+    {
+        final VeinIndex index = LOADED.remove(world.getDimension().getType());
+        if (index != null)
+        {
+            EXECUTOR.execute(index::close);
+        }
+    }
+
+    /**
+     * Closes the indexes for all dimensions. Called when the server is stopping
+     */
+    public static void closeAll()
+    {
+        LOADED.values().forEach(index -> EXECUTOR.execute(index::close));
+        LOADED.clear();
+    }
+
+    /**
+     * @return the index for a dimension, or null if the index is disabled or the dimension is not loaded
+     */
+    @Nullable
+    public static VeinIndex get(DimensionType dimension)
+    {
+        return LOADED.get(dimension);
+    }
+
+    private final Path directory;
+
+    // Only accessed on the index thread
+    private final Map<Long, Region> regions; // In access order, so the least recently used region is closed first
+    private final List<ResourceLocation> types;
+    private final Map<ResourceLocation, Integer> typeIds;
+    private boolean failed;
+
+    private final Map<Long, List<PendingChunk>> pending; // Appends which have not been written yet, by region
+
+    private VeinIndex(Path directory)
+    {
+        this.directory = directory;
+        this.regions = new LinkedHashMap<Long, Region>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Region> eldest)
+            {
+                if (size() > MAX_OPEN_REGIONS)
+                {
+                    closeRegion(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.types = new ArrayList<>();
+        this.typeIds = new HashMap<>();
+        this.pending = new ConcurrentHashMap<>();
+
+        EXECUTOR.execute(this::open);
+    }
+
+    /**
+     * Appends the veins which originated in a chunk. This should be called once per chunk
+     * The write is only queued for the first chunk in a region since the region was last written. Later chunks are written along with it.
+     */
+    public void append(int chunkX, int chunkZ, List<VeinRecord> records)
+    {
+        if (!records.isEmpty())
+        {
+            final int regionX = chunkX >> REGION_BITS, regionZ = chunkZ >> REGION_BITS;
+            final long key = ChunkPos.asLong(regionX, regionZ);
+            final boolean[] first = {false};
+            pending.compute(key, (k, chunks) -> {
+                if (chunks == null)
+                {
+                    chunks = new ArrayList<>();
+                    first[0] = true;
+                }
+                chunks.add(new PendingChunk(chunkX, chunkZ, records));
+                return chunks;
+            });
+            if (first[0])
+            {
+                EXECUTOR.execute(() -> write(regionX, regionZ, pending.remove(key)));
+            }
+        }
+    }
+
+    /**
+     * Finds all indexed veins within a horizontal distance of a position, on the index thread.
+     *
+     * @param type   the vein type to find, or null for any type
+     * @param center the center of the search
+     * @param radius the maximum horizontal distance from the center to the vein origin, in blocks
+     */
+    public CompletableFuture<List<VeinRecord>> query(@Nullable ResourceLocation type, BlockPos center, int radius)
+    {
+        return CompletableFuture.supplyAsync(() -> read(type, center, radius), EXECUTOR);
+    }
+
+    private void open()
+    {
+        try
+        {
+            Files.createDirectories(directory);
+            final Path typesFile = directory.resolve("types.txt");
+            if (Files.exists(typesFile))
+            {
+                for (String line : Files.readAllLines(typesFile, StandardCharsets.UTF_8))
+                {
+                    if (!line.isEmpty())
+                    {
+                        typeIds.put(new ResourceLocation(line), types.size());
+                        types.add(new ResourceLocation(line));
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Unable to open vein index at {}, no veins will be indexed", directory);
+            LOGGER.warn("Error: ", e);
+            failed = true;
+        }
+    }
+
+    /**
+     * Writes all pending chunks of a region at once
+     */
+    private void write(int regionX, int regionZ, @Nullable List<PendingChunk> chunks)
+    {
+        if (failed || chunks == null)
+        {
+            return;
+        }
+        try
+        {
+            final FileChannel channel = getRegion(regionX, regionZ).channel;
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            channel.read(header, 0);
+            final int count = header.getInt(8);
+
+            int total = 0;
+            for (PendingChunk chunk : chunks)
+            {
+                total += chunk.records.size();
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(total * RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+            for (PendingChunk chunk : chunks)
+            {
+                final short localChunk = (short) (((chunk.chunkX & 31) << REGION_BITS) | (chunk.chunkZ & 31));
+                for (VeinRecord record : chunk.records)
+                {
+                    buffer.putLong(record.getPos().toLong());
+                    buffer.putInt(getTypeId(record.getType()));
+                    buffer.putShort(localChunk);
+                    buffer.putShort((short) Math.min(record.getHorizontalSize(), Short.MAX_VALUE));
+                    buffer.putShort((short) Math.min(record.getVerticalSize(), Short.MAX_VALUE));
+                    buffer.position(buffer.position() + 6);
+                }
+            }
+            buffer.flip();
+            channel.write(buffer, HEADER_SIZE + (long) count * RECORD_SIZE);
+
+            // Only count the records once they are fully written, so an interrupted write is ignored
+            header.clear();
+            header.putInt(count + total).flip();
+            channel.write(header, 8);
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Unable to write to vein index for region [{}, {}]", regionX, regionZ);
+            LOGGER.warn("Error: ", e);
+        }
+    }
+
+    private List<VeinRecord> read(@Nullable ResourceLocation type, BlockPos center, int radius)
+    {
+        final int typeId = type == null ? -1 : typeIds.getOrDefault(type, -2);
+        if (failed || typeId == -2)
+        {
+            return Collections.emptyList();
+        }
+
+        final List<VeinRecord> results = new ArrayList<>();
+        final long radiusSq = (long) radius * radius;
+        final int minRegionX = (center.getX() - radius) >> (4 + REGION_BITS), maxRegionX = (center.getX() + radius) >> (4 + REGION_BITS);
+        final int minRegionZ = (center.getZ() - radius) >> (4 + REGION_BITS), maxRegionZ = (center.getZ() + radius) >> (4 + REGION_BITS);
+        for (int regionX = minRegionX; regionX <= maxRegionX; regionX++)
+        {
+            for (int regionZ = minRegionZ; regionZ <= maxRegionZ; regionZ++)
+            {
+                try
+                {
+                    readRegion(regionX, regionZ, typeId, center, radiusSq, results);
+                }
+                catch (IOException e)
+                {
+                    LOGGER.warn("Unable to read vein index region [{}, {}]", regionX, regionZ);
+                    LOGGER.warn("Error: ", e);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Reads the records of a region through its mapping
+     */
+    private void readRegion(int regionX, int regionZ, int typeId, BlockPos center, long radiusSq, List<VeinRecord> results) throws IOException
+    {
+        if (!regions.containsKey(ChunkPos.asLong(regionX, regionZ)) && !Files.exists(getRegionFile(regionX, regionZ)))
+        {
+            return;
+        }
+
+        final ByteBuffer buffer = getRegion(regionX, regionZ).map();
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+        {
+            return;
+        }
+
+        final int count = (int) Math.min(buffer.getInt(8), (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE);
+        for (int i = 0, offset = HEADER_SIZE; i < count; i++, offset += RECORD_SIZE)
+        {
+            final int recordType = buffer.getInt(offset + 8);
+            if (typeId != -1 && recordType != typeId)
+            {
+                continue;
+            }
+            final long pos = buffer.getLong(offset);
+            final long dx = BlockPos.unpackX(pos) - center.getX(), dz = BlockPos.unpackZ(pos) - center.getZ();
+            if (dx * dx + dz * dz <= radiusSq && recordType >= 0 && recordType < types.size())
+            {
+                results.add(new VeinRecord(types.get(recordType), BlockPos.fromLong(pos), buffer.getShort(offset + 14), buffer.getShort(offset + 16)));
+            }
+        }
+    }
+
+    private Region getRegion(int regionX, int regionZ) throws IOException
+    {
+        final long key = ChunkPos.asLong(regionX, regionZ);
+        Region region = regions.get(key);
+        if (region == null)
+        {
+            final FileChannel channel = FileChannel.open(getRegionFile(regionX, regionZ), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() < HEADER_SIZE)
+            {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(0).flip();
+                channel.write(header, 0);
+            }
+            region = new Region(channel);
+            regions.put(key, region);
+        }
+        return region;
+    }
+
+    private Path getRegionFile(int regionX, int regionZ)
+    {
+        return directory.resolve("r." + regionX + "." + regionZ + ".vidx");
+    }
+
+    private int getTypeId(ResourceLocation type) throws IOException
+    {
+        Integer id = typeIds.get(type);
+        if (id == null)
+        {
+            id = types.size();
+            Files.write(directory.resolve("types.txt"), Collections.singletonList(type.toString()), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            types.add(type);
+            typeIds.put(type, id);
+        }
+        return id;
+    }
+
+    private void close()
+    {
+        regions.values().forEach(VeinIndex::closeRegion);
+        regions.clear();
+    }
+
+    private static void closeRegion(Region region)
+    {
+        try
+        {
+            region.channel.close();
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Unable to close vein index region", e);
+        }
+    }
+
+    /**
+     * An open region file, and a read only mapping of it.
+     * Records are written through the channel, which the mapping sees as it maps the same file. The mapping only needs to be replaced when records are written past its end.
+     */
+    private static final class Region
+    {
+        private final FileChannel channel;
+        @Nullable private MappedByteBuffer mapping;
+
+        private Region(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        /**
+         * @return a mapping of the whole file, as it is now
+         */
+        private ByteBuffer map() throws IOException
+        {
+            final long size = Math.min(channel.size(), Integer.MAX_VALUE);
+            if (mapping == null || mapping.capacity() < size)
+            {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                mapping.order(ByteOrder.BIG_ENDIAN);
+            }
+            return mapping;
+        }
+    }
+
+    private static final class PendingChunk
+    {
+        private final int chunkX, chunkZ;
+        private final List<VeinRecord> records;
+
+        private PendingChunk(int chunkX, int chunkZ, List<VeinRecord> records)
+        {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.records = records;
+        }
+    }
+}
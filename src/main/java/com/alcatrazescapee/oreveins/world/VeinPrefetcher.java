@@ -0,0 +1,201 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.text.ITextComponent;
+import net.minecraft.util.text.TranslationTextComponent;
+
+import com.alcatrazescapee.oreveins.Config;
+
+import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
+
+/**
+ * Warms the vein cache ahead of moving players.
+ * Chunks are generated at the edge of a player's view distance, so each second this predicts where the player will be from their velocity, and computes the veins needed by the chunks which will come into view on a low priority background thread.
+ * Only the leading edge of the view is warmed, and chunks which are already in the cache are skipped. When those chunks are decorated, their neighborhood of veins is then already in the cache.
+ *
+ * Moves which are too long to be walking or flying, such as teleports, are ignored. Players are forgotten when they log out or change dimension.
+ * The queue of areas to warm is bounded, and the oldest predictions are dropped first as they are the most likely to be out of date.
+ */
+public final class VeinPrefetcher
+{
+    public static final VeinPrefetcher INSTANCE = new VeinPrefetcher();
+
+    private static final int INTERVAL = 20; // Ticks between predictions
+    private static final double MIN_SPEED = 0.5; // Blocks per tick, below which a player is considered to not be exploring
+    private static final double MAX_SPEED = 4 * 16.0 / INTERVAL; // Blocks per tick, above which a player is considered to have teleported
+
+    private final Map<UUID, Vec3d> lastPositions;
+    private final Map<UUID, Long> lastTargets;
+    private final Cache<Long, Boolean> prefetched; // Chunks with a warmed neighborhood, which have not been decorated yet
+    private final LongAdder decorated, decoratedPrefetched;
+    private ThreadPoolExecutor executor;
+    private int ticks;
+
+    private VeinPrefetcher()
+    {
+        this.lastPositions = new HashMap<>();
+        this.lastTargets = new HashMap<>();
+        this.prefetched = CacheBuilder.newBuilder().maximumSize(1 << 16).build();
+        this.decorated = new LongAdder();
+        this.decoratedPrefetched = new LongAdder();
+    }
+
+    /**
+     * Called each server tick, on the server thread
+     */
+    public void tick(MinecraftServer server)
+    {
+        final int lookahead = Config.COMMON.veinPrefetchSeconds.get();
+        if (lookahead <= 0 || ++ticks < INTERVAL)
+        {
+            return;
+        }
+        ticks = 0;
+
+        final int viewDistance = server.getPlayerList().getViewDistance();
+        for (ServerPlayerEntity player : server.getPlayerList().getPlayers())
+        {
+            final Vec3d pos = player.getPositionVec();
+            final Vec3d lastPos = lastPositions.put(player.getUniqueID(), pos);
+            if (lastPos == null)
+            {
+                continue;
+            }
+
+            final Vec3d velocity = pos.subtract(lastPos).scale(1.0 / INTERVAL);
+            final double speed = Math.sqrt(velocity.x * velocity.x + velocity.z * velocity.z);
+            if (speed > MAX_SPEED)
+            {
+                // A teleport, so predictions from the previous position are no longer useful
+                lastTargets.remove(player.getUniqueID());
+                continue;
+            }
+            if (speed < MIN_SPEED)
+            {
+                continue;
+            }
+
+            // The chunk the player will be in after the lookahead
+            final int chunkX = ((int) Math.floor(pos.x)) >> 4, chunkZ = ((int) Math.floor(pos.z)) >> 4;
+            final int targetX = ((int) Math.floor(pos.x + velocity.x * lookahead * 20)) >> 4, targetZ = ((int) Math.floor(pos.z + velocity.z * lookahead * 20)) >> 4;
+            final long targetKey = ChunkPos.asLong(targetX, targetZ);
+            final Long lastTarget = lastTargets.put(player.getUniqueID(), targetKey);
+            if (lastTarget == null || lastTarget != targetKey)
+            {
+                submit(chunkX, chunkZ, targetX, targetZ, player.getServerWorld().getSeed(), viewDistance);
+            }
+        }
+    }
+
+    /**
+     * Called when a player logs out or changes dimension, as their last position no longer predicts anything
+     */
+    public void removePlayer(UUID player)
+    {
+        lastPositions.remove(player);
+        lastTargets.remove(player);
+    }
+
+    /**
+     * Called when a chunk is decorated, to measure how often the prefetched veins are used
+     *
+     * @param ready if the veins of all chunks in the neighborhood were already in the cache
+     */
+    public void onDecorate(int chunkX, int chunkZ, boolean ready)
+    {
+        decorated.increment();
+        final long key = ChunkPos.asLong(chunkX, chunkZ);
+        if (prefetched.getIfPresent(key) != null)
+        {
+            prefetched.invalidate(key);
+            if (ready)
+            {
+                decoratedPrefetched.increment();
+            }
+        }
+    }
+
+    public ITextComponent getStatus()
+    {
+        final long total = decorated.sum();
+        final String fraction = String.format("%.1f", total == 0 ? 0 : 100.0 * decoratedPrefetched.sum() / total);
+        return new TranslationTextComponent(MOD_ID + ".command.vein_prefetch_status", executor != null ? executor.getQueue().size() : 0, fraction);
+    }
+
+    /**
+     * Called when the server is stopping. Any queued work is discarded
+     */
+    public synchronized void shutdown()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+        lastPositions.clear();
+        lastTargets.clear();
+        prefetched.invalidateAll();
+    }
+
+    /**
+     * Warms the chunks which will come into view when a player moves from one chunk to another
+     */
+    private synchronized void submit(int chunkX, int chunkZ, int targetX, int targetZ, long worldSeed, int viewDistance)
+    {
+        if (executor == null)
+        {
+            final int queueSize = Config.COMMON.veinPrefetchQueueSize.get();
+            executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), new ThreadFactoryBuilder().setNameFormat("OreVeins-Prefetch").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build(), new ThreadPoolExecutor.DiscardOldestPolicy());
+        }
+        executor.execute(() -> {
+            // The chunks which come into view, and the neighborhoods they need, are those in the square around the target which are not in the square around the player
+            final int radius = viewDistance + VeinsFeature.getChunkRadius();
+            VeinCache.INSTANCE.warm(getLeadingEdge(chunkX, chunkZ, targetX, targetZ, radius), worldSeed);
+            final LongList inView = getLeadingEdge(chunkX, chunkZ, targetX, targetZ, viewDistance);
+            for (int i = 0; i < inView.size(); i++)
+            {
+                prefetched.put(inView.getLong(i), Boolean.TRUE);
+            }
+        });
+    }
+
+    /**
+     * @return the chunks within a square radius of the target, which are not within the same radius of the center
+     */
+    private static LongList getLeadingEdge(int chunkX, int chunkZ, int targetX, int targetZ, int radius)
+    {
+        final LongList chunks = new LongArrayList();
+        for (int x = targetX - radius; x <= targetX + radius; x++)
+        {
+            for (int z = targetZ - radius; z <= targetZ + radius; z++)
+            {
+                if (Math.abs(x - chunkX) > radius || Math.abs(z - chunkZ) > radius)
+                {
+                    chunks.add(ChunkPos.asLong(x, z));
+                }
+            }
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MutableBoundingBox;
+
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinManager;
+import com.alcatrazescapee.oreveins.world.vein.VeinSnapshot;
+import com.alcatrazescapee.oreveins.world.vein.VeinType;
+
+/**
+ * An immutable summary of a vein which was generated in the world.
+ * Unlike {@link Vein}, this refers to the vein type by name, so it remains valid when vein types are reloaded or removed.
+ * Records may also hold the packed parameters of the vein (see {@link VeinType#writeParameters(Vein, DoubleArrayList)}), such as the clusters or curve, so the vein can be rebuilt without rolling it again.
+ */
+public final class VeinRecord
+{
+    /**
+     * @return a record of the vein, or null if the vein type is not registered (such as the child veins of a multiple vein)
+     */
+    @Nullable
+    public static VeinRecord of(Vein<?> vein)
+    {
+        return of(VeinManager.INSTANCE.getSnapshot(), vein);
+    }
+
+    /**
+     * @param snapshot the snapshot the vein was created from
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public static VeinRecord of(VeinSnapshot snapshot, Vein<?> vein)
+    {
+        final ResourceLocation name = snapshot.getName(vein.getType());
+        if (name == null)
+        {
+            return null;
+        }
+        final DoubleArrayList parameters = new DoubleArrayList();
+        ((VeinType<Vein<?>>) vein.getType()).writeParameters(vein, parameters);
+        return new VeinRecord(name, vein.getPos(), vein.getType().getHorizontalSize(), vein.getType().getVerticalSize(), parameters.toDoubleArray());
+    }
+
+    private static final double[] NO_PARAMETERS = new double[0];
+
+    private final ResourceLocation type;
+    private final BlockPos pos;
+    private final int horizontalSize, verticalSize;
+    @Nullable private final double[] parameters;
+
+    /**
+     * A record without parameters, which can't be rebuilt into a vein
+     */
+    public VeinRecord(ResourceLocation type, BlockPos pos, int horizontalSize, int verticalSize)
+    {
+        this(type, pos, horizontalSize, verticalSize, null);
+    }
+
+    /**
+     * @param parameters the parameters of the vein, or null if they are not known
+     */
+    public VeinRecord(ResourceLocation type, BlockPos pos, int horizontalSize, int verticalSize, @Nullable double[] parameters)
+    {
+        this.type = type;
+        this.pos = pos;
+        this.horizontalSize = horizontalSize;
+        this.verticalSize = verticalSize;
+        this.parameters = parameters != null && parameters.length == 0 ? NO_PARAMETERS : parameters;
+    }
+
+    public ResourceLocation getType()
+    {
+        return type;
+    }
+
+    public BlockPos getPos()
+    {
+        return pos;
+    }
+
+    public int getHorizontalSize()
+    {
+        return horizontalSize;
+    }
+
+    public int getVerticalSize()
+    {
+        return verticalSize;
+    }
+
+    public boolean hasParameters()
+    {
+        return parameters != null;
+    }
+
+    /**
+     * @return the number of parameters, or zero if they are not known
+     */
+    public int getParameterCount()
+    {
+        return parameters != null ? parameters.length : 0;
+    }
+
+    /**
+     * @param index an index less than {@link #getParameterCount()}
+     */
+    public double getParameter(int index)
+    {
+        if (parameters == null)
+        {
+            throw new IllegalStateException("Vein record has no parameters");
+        }
+        return parameters[index];
+    }
+
+    /**
+     * Rebuilds the vein from its parameters, with the vein type in a snapshot.
+     * The vein type must be the same as when the vein was recorded: if the size of the type has changed, the type is assumed to have changed and nothing is rebuilt.
+     *
+     * @return the vein, or null if this record has no parameters, or the type is not in the snapshot or has changed
+     */
+    @Nullable
+    public Vein<?> createVein(VeinSnapshot snapshot)
+    {
+        final VeinType<?> veinType = snapshot.getVein(type);
+        if (parameters == null || veinType == null || veinType.getHorizontalSize() != horizontalSize || veinType.getVerticalSize() != verticalSize)
+        {
+            return null;
+        }
+        return veinType.createView(pos, parameters, 0);
+    }
+
+    /**
+     * The area that the vein can generate in, based on the size of the vein type
+     */
+    public MutableBoundingBox getBoundingBox()
+    {
+        return new MutableBoundingBox(pos.getX() - horizontalSize, pos.getY() - verticalSize, pos.getZ() - horizontalSize, pos.getX() + horizontalSize, pos.getY() + verticalSize, pos.getZ() + horizontalSize);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Vein: %s, Pos: %s", type, pos);
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.nbt.LongArrayNBT;
+import net.minecraft.nbt.StringNBT;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.dimension.DimensionType;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.common.util.Constants;
+
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinSnapshot;
+
+import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
+
+/**
+ * Stores the veins which originated in each chunk of a dimension, as they were when the chunk was generated.
+ * Lookups are a single map access, instead of rolling every vein type, and are unaffected by later changes to the vein types.
+ *
+ * Records are sharded into regions of 32 x 32 chunks, each stored in its own file, like region files. Regions are loaded as they are needed, and only a limited number are held in memory at once.
+ * Only regions which have changed are written, either when the world saves or when they are evicted from memory. Regions without a file are not held in memory until a chunk in them is recorded.
+ * On disk, vein type names are stored once per region in a palette, and each chunk is packed into a single long array.
+ *
+ * Records are written from world gen threads as chunks are decorated. Each region has its own lock, and files are read and written while holding only the lock of that region, so threads working on different regions don't wait on each other's disk access.
+ */
+public final class VeinSavedData
+{
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final int REGION_BITS = 5;
+    private static final int MAX_LOADED_REGIONS = 64;
+    private static final int VERSION = 1; // Version 1 added vein parameters. Files without a version are read without parameters
+    private static final Map<DimensionType, VeinSavedData> LOADED = new ConcurrentHashMap<>();
+    private static final VeinRecord[] NO_RECORDS = new VeinRecord[0];
+
+    /**
+     * Opens the data for a world. Must be called on the server thread
+     */
+    public static void load(ServerWorld world)
+    {
+        final File directory = new File(world.getDimension().getType().getDirectory(world.getSaveHandler().getWorldDirectory()), "data/" + MOD_ID + "_veins");
+        LOADED.put(world.getDimension().getType(), new VeinSavedData(directory.toPath()));
+    }
+
+    /**
+     * Writes any changed regions for a world. Called when the world saves
+     */
+    public static void save(ServerWorld world)
+    {
+        final VeinSavedData data = LOADED.get(world.getDimension().getType());
+        if (data != null)
+        {
+            data.save();
+        }
+    }
+
+    public static void unload(ServerWorld world)
+    {
+        final VeinSavedData data = LOADED.remove(world.getDimension().getType());
+        if (data != null)
+        {
+            data.save();
+        }
+    }
+
+    /**
+     * @return the data for a dimension, or null if the dimension is not loaded
+     */
+    @Nullable
+    public static VeinSavedData get(DimensionType dimension)
+    {
+        return LOADED.get(dimension);
+    }
+
+    private final Path directory;
+    private final Map<Long, Region> regions;
+    private final AtomicLong accessCounter; // Orders accesses to regions, so the least recently used region is evicted first
+
+    private VeinSavedData(Path directory)
+    {
+        this.directory = directory;
+        this.regions = new ConcurrentHashMap<>();
+        this.accessCounter = new AtomicLong();
+    }
+
+    /**
+     * Records the veins that originated in a chunk, if that chunk has not already been recorded.
+     *
+     * @param snapshot the snapshot the veins were rolled from
+     * @param veins    the veins rolled for the chunk. Veins which cannot be recorded are skipped
+     * @return true if the chunk was recorded, false if it was already present
+     */
+    public boolean record(VeinSnapshot snapshot, int chunkX, int chunkZ, List<Vein<?>> veins)
+    {
+        final List<VeinRecord> records = new ArrayList<>(veins.size());
+        for (Vein<?> vein : veins)
+        {
+            final VeinRecord record = VeinRecord.of(snapshot, vein);
+            if (record != null)
+            {
+                records.add(record);
+            }
+        }
+
+        final long key = ChunkPos.asLong(chunkX, chunkZ);
+        boolean recorded = false;
+        boolean done = false;
+        while (!done)
+        {
+            final Region region = getRegion(chunkX >> REGION_BITS, chunkZ >> REGION_BITS, true);
+            synchronized (region)
+            {
+                // If the region was evicted before it could be locked, look it up again
+                if (region.load())
+                {
+                    if (!region.chunks.containsKey(key))
+                    {
+                        region.chunks.put(key, records.toArray(NO_RECORDS));
+                        region.dirty = true;
+                        recorded = true;
+                    }
+                    done = true;
+                }
+            }
+        }
+        evict();
+        return recorded;
+    }
+
+    public boolean isRecorded(int chunkX, int chunkZ)
+    {
+        return getRecords(chunkX, chunkZ) != null;
+    }
+
+    public boolean isRecorded(long chunkPos)
+    {
+        return isRecorded(ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos));
+    }
+
+    /**
+     * @return the veins that originated in a chunk, or null if the chunk has not been recorded
+     */
+    @Nullable
+    public List<VeinRecord> getVeins(int chunkX, int chunkZ)
+    {
+        final VeinRecord[] records = getRecords(chunkX, chunkZ);
+        return records != null ? asList(records) : null;
+    }
+
+    /**
+     * Gets the veins of every recorded chunk in an area. Each region in the area is only looked up once, so this is much cheaper than looking up each chunk.
+     *
+     * @return the veins that originated in each recorded chunk, by chunk position. Chunks which have not been recorded are not present
+     */
+    public Long2ObjectMap<List<VeinRecord>> getVeins(int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ)
+    {
+        final Long2ObjectMap<List<VeinRecord>> veins = new Long2ObjectOpenHashMap<>();
+        for (int regionX = minChunkX >> REGION_BITS; regionX <= maxChunkX >> REGION_BITS; regionX++)
+        {
+            for (int regionZ = minChunkZ >> REGION_BITS; regionZ <= maxChunkZ >> REGION_BITS; regionZ++)
+            {
+                // The part of the area within this region
+                final int minX = Math.max(minChunkX, regionX << REGION_BITS), maxX = Math.min(maxChunkX, ((regionX + 1) << REGION_BITS) - 1);
+                final int minZ = Math.max(minChunkZ, regionZ << REGION_BITS), maxZ = Math.min(maxChunkZ, ((regionZ + 1) << REGION_BITS) - 1);
+                readRegion(regionX, regionZ, region -> {
+                    for (int x = minX; x <= maxX; x++)
+                    {
+                        for (int z = minZ; z <= maxZ; z++)
+                        {
+                            final long key = ChunkPos.asLong(x, z);
+                            final VeinRecord[] records = region.chunks.get(key);
+                            if (records != null)
+                            {
+                                veins.put(key, asList(records));
+                            }
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        return veins;
+    }
+
+    /**
+     * Writes all loaded regions which have changed since they were last written
+     */
+    public void save()
+    {
+        for (Region region : regions.values())
+        {
+            synchronized (region)
+            {
+                region.save();
+            }
+        }
+    }
+
+    @Nullable
+    private VeinRecord[] getRecords(int chunkX, int chunkZ)
+    {
+        return readRegion(chunkX >> REGION_BITS, chunkZ >> REGION_BITS, region -> region.chunks.get(ChunkPos.asLong(chunkX, chunkZ)));
+    }
+
+    /**
+     * Reads from a region while holding its lock. If the region has no file, and is not loaded, nothing is read
+     *
+     * @return the result of the reader, or null if the region is empty
+     */
+    @Nullable
+    private <T> T readRegion(int regionX, int regionZ, Function<Region, T> reader)
+    {
+        while (true)
+        {
+            final Region region = getRegion(regionX, regionZ, false);
+            if (region == null)
+            {
+                return null;
+            }
+            final T result;
+            synchronized (region)
+            {
+                if (!region.load())
+                {
+                    continue; // Evicted before it could be locked, so look it up again
+                }
+                result = reader.apply(region);
+            }
+            evict();
+            return result;
+        }
+    }
+
+    /**
+     * @param create if the region should be created when it has no file. Otherwise, regions without a file are not held in memory, so lookups in chunks that were never recorded don't fill up the loaded regions
+     * @return the region, which must be loaded with {@link Region#load()} while holding its lock, or null if it does not exist and was not created
+     */
+    @Nullable
+    private Region getRegion(int regionX, int regionZ, boolean create)
+    {
+        final long key = ChunkPos.asLong(regionX, regionZ);
+        Region region = regions.get(key);
+        if (region == null)
+        {
+            final Path file = directory.resolve("r." + regionX + "." + regionZ + ".dat");
+            if (!create && !Files.exists(file))
+            {
+                return null;
+            }
+            region = regions.computeIfAbsent(key, k -> new Region(k, file));
+        }
+        region.lastAccess = accessCounter.incrementAndGet();
+        return region;
+    }
+
+    /**
+     * Evicts the least recently used regions until there are no more than the maximum loaded. Evicted regions are written if they have changed.
+     * A region is only removed once it has been written, while still holding its lock, so a region can't be read from its file again until the latest records are in it.
+     */
+    private void evict()
+    {
+        while (regions.size() > MAX_LOADED_REGIONS)
+        {
+            Region eldest = null;
+            for (Region region : regions.values())
+            {
+                if (eldest == null || region.lastAccess < eldest.lastAccess)
+                {
+                    eldest = region;
+                }
+            }
+            if (eldest == null)
+            {
+                return;
+            }
+            synchronized (eldest)
+            {
+                if (!eldest.evicted)
+                {
+                    if (!eldest.save())
+                    {
+                        return; // Keep the records in memory, rather than losing them. The write will be tried again when the world saves
+                    }
+                    eldest.evicted = true;
+                    regions.remove(eldest.key, eldest);
+                }
+            }
+        }
+    }
+
+    private static List<VeinRecord> asList(VeinRecord[] records)
+    {
+        return records.length == 0 ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(records));
+    }
+
+    /**
+     * The records for a region of chunks, which is read from its file the first time it is used. All fields are guarded by the region itself, except for the last access
+     */
+    private static final class Region
+    {
+        private final long key;
+        private final Path file;
+        private final Long2ObjectMap<VeinRecord[]> chunks;
+        private volatile long lastAccess;
+        private boolean loaded, dirty, evicted;
+
+        private Region(long key, Path file)
+        {
+            this.key = key;
+            this.file = file;
+            this.chunks = new Long2ObjectOpenHashMap<>();
+        }
+
+        /**
+         * Reads the region from its file, if it has not been read yet
+         *
+         * @return false if the region has been evicted, and should not be used
+         */
+        private boolean load()
+        {
+            if (evicted)
+            {
+                return false;
+            }
+            if (!loaded)
+            {
+                loaded = true;
+                if (Files.exists(file))
+                {
+                    try (InputStream stream = Files.newInputStream(file))
+                    {
+                        read(CompressedStreamTools.readCompressed(stream));
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        LOGGER.warn("Unable to read vein records from {}, chunks in this region will be recorded again", file);
+                        LOGGER.warn("Error: ", e);
+                        chunks.clear();
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the region has not changed, or was written successfully
+         */
+        private boolean save()
+        {
+            if (dirty)
+            {
+                try
+                {
+                    // Write to a temporary file first, so a failed write can't corrupt the existing file
+                    Files.createDirectories(file.getParent());
+                    final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                    try (OutputStream stream = Files.newOutputStream(temporary))
+                    {
+                        CompressedStreamTools.writeCompressed(write(), stream);
+                    }
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    dirty = false;
+                }
+                catch (IOException e)
+                {
+                    LOGGER.warn("Unable to write vein records to {}", file);
+                    LOGGER.warn("Error: ", e);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void read(CompoundNBT nbt)
+        {
+            final ListNBT typesNbt = nbt.getList("types", Constants.NBT.TAG_STRING);
+            final ResourceLocation[] types = new ResourceLocation[typesNbt.size()];
+            for (int i = 0; i < types.length; i++)
+            {
+                types[i] = new ResourceLocation(typesNbt.getString(i));
+            }
+
+            // Each chunk is [chunk pos, count, (vein pos, type << 32 | horizontal size << 16 | vertical size, [parameter count, parameters...]) * count]
+            // Parameters are stored as the bits of each double, with a count of -1 if they are not known. They are not present at all in files without a version
+            final boolean hasParameters = nbt.getInt("version") >= 1;
+            final long[] data = nbt.getLongArray("chunks");
+            int index = 0;
+            while (index + 1 < data.length)
+            {
+                final long key = data[index++];
+                final VeinRecord[] records = new VeinRecord[(int) data[index++]];
+                for (int i = 0; i < records.length; i++)
+                {
+                    final BlockPos pos = BlockPos.fromLong(data[index++]);
+                    final long packed = data[index++];
+                    double[] parameters = null;
+                    final int parameterCount = hasParameters ? (int) data[index++] : -1;
+                    if (parameterCount >= 0)
+                    {
+                        parameters = new double[parameterCount];
+                        for (int j = 0; j < parameters.length; j++)
+                        {
+                            parameters[j] = Double.longBitsToDouble(data[index++]);
+                        }
+                    }
+                    records[i] = new VeinRecord(types[(int) (packed >>> 32)], pos, (int) (packed >>> 16) & 0xFFFF, (int) packed & 0xFFFF, parameters);
+                }
+                chunks.put(key, records);
+            }
+        }
+
+        private CompoundNBT write()
+        {
+            final Map<ResourceLocation, Integer> typeIds = new HashMap<>();
+            final ListNBT typesNbt = new ListNBT();
+            final LongArrayList data = new LongArrayList();
+            for (Long2ObjectMap.Entry<VeinRecord[]> entry : chunks.long2ObjectEntrySet())
+            {
+                data.add(entry.getLongKey());
+                data.add((long) entry.getValue().length);
+                for (VeinRecord record : entry.getValue())
+                {
+                    final int typeId = typeIds.computeIfAbsent(record.getType(), type -> {
+                        typesNbt.add(StringNBT.valueOf(type.toString()));
+                        return typeIds.size();
+                    });
+                    data.add(record.getPos().toLong());
+                    data.add((long) typeId << 32 | (long) Math.min(record.getHorizontalSize(), 0xFFFF) << 16 | Math.min(record.getVerticalSize(), 0xFFFF));
+
+                    data.add(record.hasParameters() ? (long) record.getParameterCount() : -1L);
+                    for (int i = 0; i < record.getParameterCount(); i++)
+                    {
+                        data.add(Double.doubleToRawLongBits(record.getParameter(i)));
+                    }
+                }
+            }
+
+            final CompoundNBT nbt = new CompoundNBT();
+            nbt.putInt("version", VERSION);
+            nbt.put("types", typesNbt);
+            nbt.put("chunks", new LongArrayNBT(data.toLongArray()));
+            return nbt;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinManager;
+import com.alcatrazescapee.oreveins.world.vein.VeinSnapshot;
+
+/**
+ * Rolls the veins for large rectangular areas of chunks, in parallel.
+ * The area is split into tiles which are rolled on a fork join pool. As each chunk seeds it's own random, the result is identical to a sequential scan, including the order of the veins.
+ */
+public final class VeinScanner
+{
+    /**
+     * Areas with fewer chunks than this are rolled on the calling thread
+     */
+    private static final int TILE_CHUNKS = 256;
+
+    private static final ForkJoinPool POOL = createPool(Runtime.getRuntime().availableProcessors());
+
+    public static ForkJoinPool createPool(int parallelism)
+    {
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("OreVeins-Scanner-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Gets all veins originating in the chunks in [minX, maxX] x [minZ, maxZ], inclusive.
+     * Veins are ordered by chunk x, then chunk z, the same as {@link VeinsFeature#getNearbyVeins(int, int, long, int)}
+     */
+    public static List<Vein<?>> scan(int minX, int minZ, int maxX, int maxZ, long worldSeed)
+    {
+        return scan(POOL, minX, minZ, maxX, maxZ, worldSeed, VeinFilter.ALL);
+    }
+
+    /**
+     * Gets all veins matching a filter, see {@link VeinsFeature#getVeinsAtChunk(int, int, long, VeinFilter)}
+     */
+    public static List<Vein<?>> scan(int minX, int minZ, int maxX, int maxZ, long worldSeed, VeinFilter filter)
+    {
+        return scan(POOL, minX, minZ, maxX, maxZ, worldSeed, filter);
+    }
+
+    public static List<Vein<?>> scan(ForkJoinPool pool, int minX, int minZ, int maxX, int maxZ, long worldSeed, VeinFilter filter)
+    {
+        // Every tile uses the same snapshot, so a reload during the scan can't mix old and new vein types
+        final VeinSnapshot snapshot = VeinManager.INSTANCE.getSnapshot();
+        if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) <= TILE_CHUNKS)
+        {
+            return scanSequential(snapshot, minX, minZ, maxX, maxZ, worldSeed, filter);
+        }
+        return pool.invoke(new ScanTask(snapshot, minX, minZ, maxX, maxZ, worldSeed, filter));
+    }
+
+    public static List<Vein<?>> scanSequential(int minX, int minZ, int maxX, int maxZ, long worldSeed, VeinFilter filter)
+    {
+        return scanSequential(VeinManager.INSTANCE.getSnapshot(), minX, minZ, maxX, maxZ, worldSeed, filter);
+    }
+
+    private static List<Vein<?>> scanSequential(VeinSnapshot snapshot, int minX, int minZ, int maxX, int maxZ, long worldSeed, VeinFilter filter)
+    {
+        final List<Vein<?>> veins = new ArrayList<>();
+        for (int x = minX; x <= maxX; x++)
+        {
+            for (int z = minZ; z <= maxZ; z++)
+            {
+                veins.addAll(VeinsFeature.getVeinsAtChunk(snapshot, x, z, worldSeed, filter));
+            }
+        }
+        return veins;
+    }
+
+    private VeinScanner() {}
+
+    private static final class ScanTask extends RecursiveTask<List<Vein<?>>>
+    {
+        private final VeinSnapshot snapshot;
+        private final int minX, minZ, maxX, maxZ;
+        private final long worldSeed;
+        private final VeinFilter filter;
+
+        private ScanTask(VeinSnapshot snapshot, int minX, int minZ, int maxX, int maxZ, long worldSeed, VeinFilter filter)
+        {
+            this.snapshot = snapshot;
+            this.minX = minX;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+            this.worldSeed = worldSeed;
+            this.filter = filter;
+        }
+
+        @Override
+        protected List<Vein<?>> compute()
+        {
+            final int sizeX = maxX - minX + 1, sizeZ = maxZ - minZ + 1;
+            if ((long) sizeX * sizeZ <= TILE_CHUNKS)
+            {
+                return scanSequential(snapshot, minX, minZ, maxX, maxZ, worldSeed, filter);
+            }
+
+            // Split along x where possible, as the sequential order is x major. Then joining the left and right halves in order preserves it.
+            final ScanTask left, right;
+            if (sizeX > 1)
+            {
+                final int midX = minX + sizeX / 2;
+                left = new ScanTask(snapshot, minX, minZ, midX - 1, maxZ, worldSeed, filter);
+                right = new ScanTask(snapshot, midX, minZ, maxX, maxZ, worldSeed, filter);
+            }
+            else
+            {
+                final int midZ = minZ + sizeZ / 2;
+                left = new ScanTask(snapshot, minX, minZ, maxX, midZ - 1, worldSeed, filter);
+                right = new ScanTask(snapshot, minX, midZ, maxX, maxZ, worldSeed, filter);
+            }
+
+            right.fork();
+            final List<Vein<?>> veins = left.compute();
+            veins.addAll(right.join());
+            return veins;
+        }
+    }
+}
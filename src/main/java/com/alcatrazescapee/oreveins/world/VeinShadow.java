@@ -0,0 +1,285 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import net.minecraft.block.BlockState;
+import net.minecraft.fluid.IFluidState;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.text.ITextComponent;
+import net.minecraft.util.text.TranslationTextComponent;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.gen.Heightmap;
+
+import com.alcatrazescapee.oreveins.Config;
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinKernel;
+import com.alcatrazescapee.oreveins.world.vein.VeinSnapshot;
+import com.alcatrazescapee.oreveins.world.vein.VeinType;
+
+import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
+
+/**
+ * Compares the placement engine in use with an alternate engine, for a sampled fraction of chunks.
+ * The alternate engine uses interpreted kernels if veins are compiled, or compiled kernels if not. It runs first, writing into a scratch buffer over the world, then the normal engine places the veins into the world.
+ * Both engines see the same random numbers, which are the numbers the normal engine would have seen anyway, so sampling a chunk doesn't change what is generated in it.
+ *
+ * The scratch buffer is exact for blocks and heights in the chunk. Indicators check if they can be placed against the world as it was before any veins were placed, so in rare cases an indicator on a block which was just replaced by a vein can be reported as a mismatch.
+ */
+public final class VeinShadow
+{
+    public static final VeinShadow INSTANCE = new VeinShadow();
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int MAX_LOGGED_BLOCKS = 5;
+
+    private final LongAdder compared, mismatched, normalNanos, alternateNanos;
+    private final Map<VeinType<?>, VeinKernel> alternateKernels;
+    private VeinSnapshot alternateSnapshot;
+
+    private VeinShadow()
+    {
+        this.compared = new LongAdder();
+        this.mismatched = new LongAdder();
+        this.normalNanos = new LongAdder();
+        this.alternateNanos = new LongAdder();
+        this.alternateKernels = new IdentityHashMap<>();
+    }
+
+    /**
+     * @return if the next chunk should be placed by both engines and compared
+     */
+    public boolean shouldCompare()
+    {
+        final double rate = Config.COMMON.shadowPlacementRate.get();
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * Places veins with both engines, and compares them. Only the placements of the normal engine are written to the world
+     */
+    public boolean place(VeinsFeature feature, IWorld world, Random rand, BlockPos pos, VeinSnapshot snapshot, List<Vein<?>> veins)
+    {
+        final VeinKernel[] kernels = new VeinKernel[veins.size()];
+        final VeinKernel[] alternates = new VeinKernel[veins.size()];
+        for (int i = 0; i < kernels.length; i++)
+        {
+            kernels[i] = snapshot.getKernel(veins.get(i).getType());
+            alternates[i] = getAlternateKernel(snapshot, veins.get(i).getType(), kernels[i]);
+        }
+
+        // The alternate engine runs first, on the world before any veins are placed, and records the random numbers it uses
+        final ReplayRandom replay = new ReplayRandom(rand);
+        final ScratchTarget scratch = new ScratchTarget(world);
+        long start = System.nanoTime();
+        feature.place(world, scratch, replay, pos, veins, alternates);
+        alternateNanos.add(System.nanoTime() - start);
+
+        // The normal engine then sees the same random numbers, followed by the rest of the original random
+        replay.replay();
+        final Long2ObjectMap<BlockState> written = new Long2ObjectOpenHashMap<>();
+        start = System.nanoTime();
+        final boolean result = feature.place(world, feature.new WorldTarget(world, written), replay, pos, veins, kernels);
+        normalNanos.add(System.nanoTime() - start);
+
+        compared.increment();
+        compare(pos, snapshot, veins, written, scratch.written);
+        return result;
+    }
+
+    public ITextComponent getStatus()
+    {
+        final long normal = normalNanos.sum();
+        final String relativeTime = String.format("%.1f", normal == 0 ? 0 : 100.0 * alternateNanos.sum() / normal);
+        return new TranslationTextComponent(MOD_ID + ".command.vein_shadow_status", compared.sum(), mismatched.sum(), relativeTime);
+    }
+
+    /**
+     * Called when the server is stopping
+     */
+    public void reset()
+    {
+        compared.reset();
+        mismatched.reset();
+        normalNanos.reset();
+        alternateNanos.reset();
+        synchronized (alternateKernels)
+        {
+            alternateKernels.clear();
+            alternateSnapshot = null;
+        }
+    }
+
+    private VeinKernel getAlternateKernel(VeinSnapshot snapshot, VeinType<?> type, VeinKernel kernel)
+    {
+        synchronized (alternateKernels)
+        {
+            if (alternateSnapshot != snapshot)
+            {
+                alternateKernels.clear();
+                alternateSnapshot = snapshot;
+            }
+            return alternateKernels.computeIfAbsent(type, key -> kernel instanceof VeinKernel.Interpreted ? key.compile() : new VeinKernel.Interpreted(key));
+        }
+    }
+
+    private void compare(BlockPos chunkPos, VeinSnapshot snapshot, List<Vein<?>> veins, Long2ObjectMap<BlockState> normal, Long2ObjectMap<BlockState> alternate)
+    {
+        final LongSet positions = new LongOpenHashSet(normal.keySet());
+        positions.addAll(alternate.keySet());
+
+        final List<BlockPos> different = new ArrayList<>();
+        for (long key : positions)
+        {
+            if (normal.get(key) != alternate.get(key))
+            {
+                different.add(BlockPos.fromLong(key));
+            }
+        }
+        if (!different.isEmpty())
+        {
+            mismatched.increment();
+            different.sort(Comparator.comparingInt(BlockPos::getY).thenComparingInt(BlockPos::getX).thenComparingInt(BlockPos::getZ));
+
+            final ChunkPos pos = new ChunkPos(chunkPos);
+            final StringBuilder builder = new StringBuilder().append("Alternate vein placement differs at ").append(different.size()).append(" blocks in chunk [").append(pos.x).append(", ").append(pos.z).append("]:");
+            for (BlockPos diff : different.subList(0, Math.min(different.size(), MAX_LOGGED_BLOCKS)))
+            {
+                builder.append("\n  At ").append(diff).append(": placed ").append(normal.get(diff.toLong())).append(", alternate ").append(alternate.get(diff.toLong())).append(". Veins in range: ");
+                final StringJoiner joiner = new StringJoiner(", ", "[", "]");
+                for (Vein<?> vein : veins)
+                {
+                    if (vein.inRange(diff.getX(), diff.getZ()))
+                    {
+                        joiner.add(snapshot.getName(vein.getType()) + " at " + vein.getPos());
+                    }
+                }
+                builder.append(joiner);
+            }
+            LOGGER.warn(builder.toString());
+        }
+    }
+
+    /**
+     * Records the random numbers drawn from a random, so they can be drawn again.
+     * Values are taken from the original random as ints, which is exact for the vanilla random, as next(bits) is always the top bits of nextInt()
+     */
+    @SuppressWarnings("serial")
+    static final class ReplayRandom extends Random
+    {
+        private final Random random;
+        private final IntArrayList values;
+        private boolean replaying;
+        private int position;
+
+        ReplayRandom(Random random)
+        {
+            this.random = random;
+            this.values = new IntArrayList();
+        }
+
+        /**
+         * Starts drawing the recorded numbers again. Once those are used, numbers are drawn from the original random
+         */
+        void replay()
+        {
+            replaying = true;
+            position = 0;
+        }
+
+        @Override
+        protected int next(int bits)
+        {
+            final int value;
+            if (replaying)
+            {
+                value = position < values.size() ? values.getInt(position++) : random.nextInt();
+            }
+            else
+            {
+                value = random.nextInt();
+                values.add(value);
+            }
+            return value >>> (32 - bits);
+        }
+    }
+
+    /**
+     * Reads blocks from the world, but writes them to a buffer, which is read in place of the world afterwards
+     */
+    static final class ScratchTarget implements VeinsFeature.BlockTarget
+    {
+        private final IWorld world;
+        private final Long2ObjectMap<BlockState> written;
+        private final Long2IntMap tops; // The highest y position written, + 1, in each column
+
+        ScratchTarget(IWorld world)
+        {
+            this.world = world;
+            this.written = new Long2ObjectOpenHashMap<>();
+            this.tops = new Long2IntOpenHashMap();
+        }
+
+        @Override
+        public void setBlockState(BlockPos pos, BlockState state)
+        {
+            written.put(pos.toLong(), state);
+            final long column = ChunkPos.asLong(pos.getX(), pos.getZ());
+            tops.put(column, Math.max(tops.get(column), pos.getY() + 1));
+        }
+
+        @Override
+        public int getHeight(Heightmap.Type type, int x, int z)
+        {
+            // Written blocks can only raise the height, so only those above the height in the world need to be checked
+            final int height = world.getHeight(type, x, z);
+            for (int y = tops.get(ChunkPos.asLong(x, z)) - 1; y >= height; y--)
+            {
+                final BlockState state = written.get(new BlockPos(x, y, z).toLong());
+                if (state != null && type.getHeightLimitPredicate().test(state))
+                {
+                    return y + 1;
+                }
+            }
+            return height;
+        }
+
+        @Nullable
+        @Override
+        public TileEntity getTileEntity(BlockPos pos)
+        {
+            return written.containsKey(pos.toLong()) ? null : world.getTileEntity(pos);
+        }
+
+        @Override
+        public BlockState getBlockState(BlockPos pos)
+        {
+            final BlockState state = written.get(pos.toLong());
+            return state != null ? state : world.getBlockState(pos);
+        }
+
+        @Override
+        public IFluidState getFluidState(BlockPos pos)
+        {
+            return getBlockState(pos).getFluidState();
+        }
+    }
+}
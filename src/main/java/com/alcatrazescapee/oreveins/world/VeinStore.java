@@ -0,0 +1,40 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world;
+
+import javax.annotation.Nullable;
+
+import com.alcatrazescapee.oreveins.world.vein.VeinSnapshot;
+
+/**
+ * Storage for the entries of {@link VeinCache}, keyed by chunk position. Implementations must be thread safe, and may evict entries at any time.
+ */
+interface VeinStore
+{
+    @Nullable
+    VeinCache.ChunkVeins get(long key);
+
+    void put(long key, VeinCache.ChunkVeins veins);
+
+    /**
+     * @return if an entry for a snapshot is present. Unlike {@link #get(long)}, this does not read the entry or count towards the hit rate
+     */
+    boolean contains(long key, VeinSnapshot snapshot);
+
+    void invalidateAll();
+
+    /**
+     * @return the number of chunks stored
+     */
+    long size();
+
+    /**
+     * @return the memory used by this store, in bytes
+     */
+    long getSizeInBytes();
+
+    double hitRate();
+}
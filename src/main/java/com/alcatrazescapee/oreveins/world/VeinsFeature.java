@@ -6,14 +6,29 @@
 package com.alcatrazescapee.oreveins.world;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.fluid.IFluidState;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IBlockReader;
 import net.minecraft.world.IWorld;
 import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.IChunk;
+import net.minecraft.world.dimension.DimensionType;
 import net.minecraft.world.gen.ChunkGenerator;
 import net.minecraft.world.gen.GenerationSettings;
 import net.minecraft.world.gen.Heightmap;
@@ -24,7 +39,9 @@ import net.minecraftforge.common.util.Lazy;
 import com.alcatrazescapee.oreveins.Config;
 import com.alcatrazescapee.oreveins.world.vein.Indicator;
 import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinKernel;
 import com.alcatrazescapee.oreveins.world.vein.VeinManager;
+import com.alcatrazescapee.oreveins.world.vein.VeinSnapshot;
 import com.alcatrazescapee.oreveins.world.vein.VeinType;
 
 import static net.minecraft.world.gen.Heightmap.Type.OCEAN_FLOOR_WG;
@@ -32,40 +49,195 @@ import static net.minecraft.world.gen.Heightmap.Type.WORLD_SURFACE_WG;
 
 public class VeinsFeature extends Feature<NoFeatureConfig>
 {
-    private static final Random RANDOM = new Random();
-    private static int CHUNK_RADIUS = 0;
+    /**
+     * Columns with a maximum chance below this use skip sampling, if enabled. Above this, most blocks would need a roll anyway.
+     */
+    private static final float SKIP_SAMPLING_MAX_CHANCE = 0.25f;
 
-    public static void resetChunkRadius()
+    /**
+     * @return the radius, in chunks, around a chunk in which veins need to be checked when generating that chunk
+     */
+    public static int getChunkRadius()
     {
-        CHUNK_RADIUS = 1 + VeinManager.INSTANCE.getVeins().stream().mapToInt(VeinType::getChunkRadius).max().orElse(0) + Config.COMMON.extraChunkRange.get();
+        return VeinManager.INSTANCE.getSnapshot().getChunkRadius();
     }
 
+    /**
+     * Rolls all veins in a square radius of chunks around a center chunk.
+     * Large radii are split and rolled in parallel by {@link VeinScanner}
+     */
     public static List<Vein<?>> getNearbyVeins(int chunkX, int chunkZ, long worldSeed, int radius)
     {
-        List<Vein<?>> veins = new ArrayList<>();
-        for (int x = chunkX - radius; x <= chunkX + radius; x++)
+        return VeinScanner.scan(chunkX - radius, chunkZ - radius, chunkX + radius, chunkZ + radius, worldSeed);
+    }
+
+    /**
+     * Rolls the veins which originate in a single chunk.
+     * This uses a random local to the call, as it can be called from multiple world gen threads at once
+     */
+    public static List<Vein<?>> getVeinsAtChunk(int chunkX, int chunkZ, long worldSeed)
+    {
+        return getVeinsAtChunk(chunkX, chunkZ, worldSeed, VeinFilter.ALL);
+    }
+
+    /**
+     * Rolls the veins which originate in a single chunk, only creating veins that match a filter.
+     * Each vein type has an independent random stream, so skipping a type doesn't change the veins of any other type.
+     */
+    public static List<Vein<?>> getVeinsAtChunk(int chunkX, int chunkZ, long worldSeed, VeinFilter filter)
+    {
+        return getVeinsAtChunk(VeinManager.INSTANCE.getSnapshot(), chunkX, chunkZ, worldSeed, filter);
+    }
+
+    /**
+     * Rolls the veins of a specific snapshot of vein types
+     */
+    public static List<Vein<?>> getVeinsAtChunk(VeinSnapshot snapshot, int chunkX, int chunkZ, long worldSeed, VeinFilter filter)
+    {
+        if (!filter.test(chunkX, chunkZ))
         {
-            for (int z = chunkZ - radius; z <= chunkZ + radius; z++)
+            return Collections.emptyList();
+        }
+
+        final List<Vein<?>> veins = new ArrayList<>();
+        if (snapshot.isLegacyRolling())
+        {
+            // Every type must be rolled, as each type changes the random seen by the types after it
+            getLegacyVeinsByType(snapshot, chunkX, chunkZ, worldSeed).forEach(veins::addAll);
+        }
+        else
+        {
+            final Random random = new Random();
+            for (Map.Entry<ResourceLocation, VeinType<?>> entry : snapshot.getEntries())
             {
-                getVeinsAtChunk(veins, x, z, worldSeed);
+                final VeinType<?> type = entry.getValue();
+                if (filter.test(type))
+                {
+                    createVeins(veins, random, chunkX, chunkZ, worldSeed, entry.getKey(), type);
+                }
             }
         }
-        return veins;
+        if (filter != VeinFilter.ALL)
+        {
+            veins.removeIf(vein -> !filter.test(vein));
+        }
+        return Collections.unmodifiableList(veins);
     }
 
-    private static void getVeinsAtChunk(List<Vein<?>> veins, int chunkX, int chunkZ, long worldSeed)
+    /**
+     * Rolls the veins of a single type which originate in a chunk.
+     * As each type has an independent random stream, these are the same veins as that type contributes to {@link #getVeinsAtChunk(int, int, long)}, unless legacy rolling is enabled
+     */
+    public static List<Vein<?>> getVeinsAtChunk(int chunkX, int chunkZ, long worldSeed, ResourceLocation name, VeinType<?> type)
     {
-        RANDOM.setSeed(worldSeed + chunkX * 341873128712L + chunkZ * 132897987541L);
-        for (VeinType<?> type : VeinManager.INSTANCE.getVeins())
+        final List<Vein<?>> veins = new ArrayList<>();
+        createVeins(veins, new Random(), chunkX, chunkZ, worldSeed, name, type);
+        return veins.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(veins);
+    }
+
+    /**
+     * Rolls the veins of every type in a chunk from one shared random, in the order of the snapshot, as older versions did. See {@link VeinSnapshot#isLegacyRolling()}
+     *
+     * @return the veins of each type, indexed by the id of the type in the snapshot
+     */
+    public static List<List<Vein<?>>> getLegacyVeinsByType(VeinSnapshot snapshot, int chunkX, int chunkZ, long worldSeed)
+    {
+        final List<List<Vein<?>>> veins = new ArrayList<>(snapshot.size());
+        final Random random = new Random(worldSeed + chunkX * 341873128712L + chunkZ * 132897987541L);
+        for (VeinType<?> type : snapshot.getVeins())
         {
+            final List<Vein<?>> typeVeins = new ArrayList<>();
             for (int i = 0; i < type.getCount(); i++)
             {
-                if (RANDOM.nextInt(type.getRarity()) == 0)
+                if (random.nextInt(type.getRarity()) == 0)
+                {
+                    type.createVeins(typeVeins, chunkX, chunkZ, random);
+                }
+            }
+            veins.add(typeVeins.isEmpty() ? Collections.emptyList() : typeVeins);
+        }
+        return veins;
+    }
+
+    private static void createVeins(List<Vein<?>> veins, Random random, int chunkX, int chunkZ, long worldSeed, ResourceLocation name, VeinType<?> type)
+    {
+        final long chunkSeed = worldSeed + chunkX * 341873128712L + chunkZ * 132897987541L;
+        random.setSeed(getTypeSeed(chunkSeed, name));
+        for (int i = 0; i < type.getCount(); i++)
+        {
+            if (random.nextInt(type.getRarity()) == 0)
+            {
+                type.createVeins(veins, chunkX, chunkZ, random);
+            }
+        }
+    }
+
+    /**
+     * The seed for a vein type in a chunk. This depends on the name of the type, so it is stable when other types are added or removed.
+     */
+    private static long getTypeSeed(long chunkSeed, ResourceLocation name)
+    {
+        return HashCommon.murmurHash3(chunkSeed + HashCommon.murmurHash3((long) name.hashCode()));
+    }
+
+    /**
+     * Places a single block of a vein, if the vein can generate there
+     *
+     * @param indicator the indicator of the vein, or null if it doesn't need to be checked
+     * @return if the indicator can generate, based on the depth of this block
+     */
+    private static boolean generate(BlockTarget target, BlockPos chunkPos, Random rand, Vein<?> vein, VeinKernel kernel, @Nullable Indicator indicator, BlockState[] column, ReplaceableSections sections, int x, int y, int z)
+    {
+        BlockPos posAt = new BlockPos(x, y, z);
+        if (kernel.canGenerateAt(target, posAt, getBlockState(target, column, posAt)))
+        {
+            BlockState oreState = vein.getStateToGenerate(chunkPos, rand);
+            target.setBlockState(posAt, oreState);
+            invalidate(column, y);
+            sections.onWrite(oreState, y);
+            if (indicator != null)
+            {
+                Heightmap.Type heightmap = indicator.shouldIgnoreLiquids() ? OCEAN_FLOOR_WG : WORLD_SURFACE_WG;
+                int depth = target.getHeight(heightmap, x, z) - y;
+                if (depth < 0)
                 {
-                    type.createVeins(veins, chunkX, chunkZ, RANDOM);
+                    depth = -depth;
                 }
+                return depth < indicator.getMaxDepth();
             }
         }
+        return false;
+    }
+
+    /**
+     * Gets a block state in the current column, reading it from the world only the first time.
+     * Every vein in range of a column shares this, so veins which overlap (such as the children of a multiple vein) only read each block once
+     */
+    private static BlockState getBlockState(BlockTarget target, BlockState[] column, BlockPos pos)
+    {
+        final int y = pos.getY();
+        if (y < 0 || y >= column.length)
+        {
+            return target.getBlockState(pos);
+        }
+        BlockState state = column[y];
+        if (state == null)
+        {
+            state = target.getBlockState(pos);
+            column[y] = state;
+        }
+        return state;
+    }
+
+    /**
+     * Must be called after a block in the current column is changed
+     */
+    private static void invalidate(BlockState[] column, int y)
+    {
+        if (y >= 0 && y < column.length)
+        {
+            column[y] = null;
+        }
     }
 
     public VeinsFeature()
@@ -77,68 +249,165 @@ public class VeinsFeature extends Feature<NoFeatureConfig>
     public boolean place(IWorld worldIn, ChunkGenerator<? extends GenerationSettings> generator, Random rand, BlockPos pos, NoFeatureConfig config)
     {
         // Get all nearby veins, filtering out those which are in the wrong dimension
-        List<Vein<?>> veins = getNearbyVeins(pos.getX() >> 4, pos.getZ() >> 4, worldIn.getSeed(), CHUNK_RADIUS)
+        // All veins are taken from the same snapshot, so a reload part way through can't mix old and new vein types
+        final VeinSnapshot snapshot = VeinManager.INSTANCE.getSnapshot();
+        final DimensionType dimension = worldIn.getDimension().getType();
+        final List<Vein<?>> veins = VeinCache.INSTANCE.getNearbyVeins(snapshot, pos.getX() >> 4, pos.getZ() >> 4, worldIn.getSeed(), snapshot.getChunkRadius())
             .stream()
-            .filter(vein -> vein.getType().matchesDimension(worldIn.getDimension().getType()))
+            .filter(vein -> vein.getType().matchesDimension(dimension))
                 .collect(Collectors.toList());
+
+        // Record the veins which originate in this chunk, the first time it is decorated
+        final VeinSavedData savedData = VeinSavedData.get(dimension);
+        if (savedData != null)
+        {
+            final List<Vein<?>> chunkVeins = VeinCache.INSTANCE.getVeinsAtChunk(snapshot, pos.getX() >> 4, pos.getZ() >> 4, worldIn.getSeed());
+            if (savedData.record(snapshot, pos.getX() >> 4, pos.getZ() >> 4, chunkVeins.stream().filter(vein -> vein.getType().matchesDimension(dimension)).collect(Collectors.toList())))
+            {
+                final VeinIndex index = VeinIndex.get(dimension);
+                if (index != null)
+                {
+                    index.append(pos.getX() >> 4, pos.getZ() >> 4, savedData.getVeins(pos.getX() >> 4, pos.getZ() >> 4));
+                }
+            }
+        }
+
+        if (VeinShadow.INSTANCE.shouldCompare())
+        {
+            return VeinShadow.INSTANCE.place(this, worldIn, rand, pos, snapshot, veins);
+        }
+        return place(worldIn, rand, pos, snapshot, veins);
+    }
+
+    /**
+     * Places a list of veins in a chunk. The veins must all be from the same snapshot, and should already be filtered to those which can generate in this dimension.
+     * This does not record the veins which originate in the chunk
+     *
+     * @param pos the minimum corner of the chunk
+     */
+    public boolean place(IWorld worldIn, Random rand, BlockPos pos, VeinSnapshot snapshot, List<Vein<?>> veins)
+    {
+        // Look up the kernel for each vein once, rather than for every block
+        final VeinKernel[] kernels = new VeinKernel[veins.size()];
+        for (int i = 0; i < kernels.length; i++)
+        {
+            kernels[i] = snapshot.getKernel(veins.get(i).getType());
+        }
+        return place(worldIn, new WorldTarget(worldIn, null), rand, pos, veins, kernels);
+    }
+
+    /**
+     * Places veins with the given kernels, reading and writing blocks through a target
+     *
+     * @param worldIn the world, which is used for everything other than reading and writing blocks in the chunk
+     */
+    boolean place(IWorld worldIn, BlockTarget target, Random rand, BlockPos pos, List<Vein<?>> veins, VeinKernel[] kernels)
+    {
+        final boolean skipSampling = Config.COMMON.skipSampling.get();
+
+        // The biome of each column is only loaded once, and only if a vein in range of that column needs it
+        final List<Lazy<Biome>> biomes = new ArrayList<>(256);
+        for (int column = 0; column < 256; column++)
+        {
+            final BlockPos biomePos = new BlockPos(pos.getX() + (column >> 4), 0, pos.getZ() + (column & 15));
+            biomes.add(Lazy.of(() -> worldIn.getBiome(biomePos)));
+        }
+
+        // Compute the chances for every vein and column up front, grouped by kernel. Columns in which a vein can't generate due to the biome are skipped
+        final VeinBatch batch = VeinBatch.prepare(veins, kernels, pos.getX(), pos.getZ(), (vein, column) -> vein.getType().matchesBiome(biomes.get(column)));
+        try
+        {
+            placeBatch(worldIn, target, rand, pos, veins, kernels, batch, skipSampling);
+        }
+        finally
+        {
+            batch.release();
+        }
+        return true;
+    }
+
+    private void placeBatch(IWorld worldIn, BlockTarget target, Random rand, BlockPos pos, List<Vein<?>> veins, VeinKernel[] kernels, VeinBatch batch, boolean skipSampling)
+    {
+        // Find the sections of this chunk which contain a block each vein could replace. In other sections, blocks don't need to be checked
+        final ReplaceableSections replaceableSections = new ReplaceableSections(worldIn.getChunk(pos.getX() >> 4, pos.getZ() >> 4), kernels);
+
+        // The block states of the current column, read as they are needed
+        final BlockState[] columnStates = new BlockState[256];
         for (int x = pos.getX(); x < 16 + pos.getX(); x++)
         {
             for (int z = pos.getZ(); z < 16 + pos.getZ(); z++)
             {
-                // Do checks here that are specific to the the horizontal position, not the vertical one
-                // We load the biome only once and cache it for lazy purposes
-                BlockPos biomePos = new BlockPos(x, 0, z);
-                Lazy<Biome> lazyBiome = Lazy.of(() -> worldIn.getBiome(biomePos));
+                Arrays.fill(columnStates, null);
 
-                // Then we perform the same checks for each vein
-                for (Vein<?> vein : veins)
+                // Perform the same checks for each vein, in the same order, so the random is used identically. Veins are only in range of a column if they also match its biome
+                final int column = (x - pos.getX()) << 4 | (z - pos.getZ());
+                for (int i = 0; i < kernels.length; i++)
                 {
-                    if (vein.getType().matchesBiome(lazyBiome) && vein.inRange(x, z))
+                    final Vein<?> vein = veins.get(i);
+                    final VeinKernel kernel = kernels[i];
+                    if (batch.inRange(i, column))
                     {
                         Indicator veinIndicator = vein.getType().getIndicator(rand);
                         boolean canGenerateIndicator = false;
 
-                        for (int y = vein.getType().getMinY(); y <= vein.getType().getMaxY(); y++)
+                        final int minY = vein.getType().getMinY(), maxY = vein.getType().getMaxY();
+                        final float maxChance = batch.getMaxChance(i, column);
+                        if (skipSampling && maxChance < SKIP_SAMPLING_MAX_CHANCE)
                         {
-                            BlockPos posAt = new BlockPos(x, y, z);
-                            if (rand.nextFloat() < vein.getChanceToGenerate(posAt))
+                            // Jump straight to the next block that passes a roll with the maximum chance, then accept it with the actual chance at that block
+                            // Each block is still chosen with the same probability, but the random is only used about once per block placed
+                            if (maxChance > 0)
                             {
-                                if (vein.getType().canGenerateAt(worldIn, posAt))
+                                final double logMiss = Math.log1p(-maxChance);
+                                for (int y = minY; ; y++)
                                 {
-                                    BlockState oreState = vein.getStateToGenerate(pos, rand);
-                                    setBlockState(worldIn, posAt, oreState);
-                                    if (veinIndicator != null && !canGenerateIndicator)
+                                    final double gap = Math.floor(Math.log(1 - rand.nextDouble()) / logMiss);
+                                    if (gap > maxY - y)
+                                    {
+                                        break;
+                                    }
+                                    y += (int) gap;
+
+                                    final float chance = batch.getChanceToGenerate(i, column, y);
+                                    if ((chance >= maxChance || rand.nextFloat() * maxChance < chance) && replaceableSections.contains(i, y))
                                     {
-                                        Heightmap.Type heightmap = veinIndicator.shouldIgnoreLiquids() ? OCEAN_FLOOR_WG : WORLD_SURFACE_WG;
-                                        int depth = worldIn.getHeight(heightmap, x, z) - y;
-                                        if (depth < 0)
-                                        {
-                                            depth = -depth;
-                                        }
-                                        canGenerateIndicator = depth < veinIndicator.getMaxDepth();
+                                        canGenerateIndicator |= generate(target, pos, rand, vein, kernel, canGenerateIndicator ? null : veinIndicator, columnStates, replaceableSections, x, y, z);
                                     }
                                 }
                             }
                         }
+                        else
+                        {
+                            for (int y = minY; y <= maxY; y++)
+                            {
+                                // The random is always used, so skipping sections doesn't change what is generated
+                                if (rand.nextFloat() < batch.getChanceToGenerate(i, column, y) && replaceableSections.contains(i, y))
+                                {
+                                    canGenerateIndicator |= generate(target, pos, rand, vein, kernel, canGenerateIndicator ? null : veinIndicator, columnStates, replaceableSections, x, y, z);
+                                }
+                            }
+                        }
 
                         if (veinIndicator != null && canGenerateIndicator)
                         {
                             if (rand.nextInt(veinIndicator.getRarity()) == 0)
                             {
                                 Heightmap.Type heightmap = veinIndicator.shouldIgnoreLiquids() ? OCEAN_FLOOR_WG : WORLD_SURFACE_WG;
-                                BlockPos posAt = worldIn.getHeight(heightmap, new BlockPos(x, 0, z));
+                                BlockPos posAt = new BlockPos(x, target.getHeight(heightmap, x, z), z);
 
                                 BlockState indicatorState = veinIndicator.getStateToGenerate(rand);
-                                BlockState stateAt = worldIn.getBlockState(posAt);
+                                BlockState stateAt = target.getBlockState(posAt);
 
                                 // This happens after, as we replace what was the "under_state"
                                 if (veinIndicator.shouldReplaceSurface())
                                 {
                                     posAt = posAt.down();
                                 }
-                                if (indicatorState.isValidPosition(worldIn, posAt) && (veinIndicator.shouldIgnoreLiquids() || !stateAt.getMaterial().isLiquid()) && veinIndicator.validUnderState(worldIn.getBlockState(posAt.down())))
+                                if (indicatorState.isValidPosition(worldIn, posAt) && (veinIndicator.shouldIgnoreLiquids() || !stateAt.getMaterial().isLiquid()) && veinIndicator.validUnderState(target.getBlockState(posAt.down())))
                                 {
-                                    setBlockState(worldIn, posAt, indicatorState);
+                                    target.setBlockState(posAt, indicatorState);
+                                    invalidate(columnStates, posAt.getY());
+                                    replaceableSections.onWrite(indicatorState, posAt.getY());
                                 }
                             }
                         }
@@ -146,6 +415,170 @@ public class VeinsFeature extends Feature<NoFeatureConfig>
                 }
             }
         }
-        return true;
+    }
+
+    /**
+     * For each vein, a bit mask of the sections of a chunk which contain at least one block state that the vein could replace.
+     * Empty sections are treated as containing only air. The distinct states of each section are collected once, then each kernel checks those states.
+     * As veins are placed, the masks are updated with each state written, so a vein which can replace the ore of another vein placed before it still checks those sections.
+     */
+    private static final class ReplaceableSections
+    {
+        private final VeinKernel[] kernels;
+        private final int[] masks;
+        private final Map<BlockState, boolean[]> replacedBy; // For each state written so far, which kernels can replace it
+
+        ReplaceableSections(IChunk chunk, VeinKernel[] kernels)
+        {
+            final BlockState[][] sectionStates = kernels.length > 0 ? getSectionStates(chunk.getSections()) : new BlockState[0][];
+            final Map<VeinKernel, Integer> kernelMasks = new IdentityHashMap<>();
+            this.kernels = kernels;
+            this.masks = new int[kernels.length];
+            this.replacedBy = new IdentityHashMap<>();
+            for (int i = 0; i < kernels.length; i++)
+            {
+                masks[i] = kernelMasks.computeIfAbsent(kernels[i], kernel -> {
+                    int mask = 0;
+                    for (int sectionY = 0; sectionY < sectionStates.length; sectionY++)
+                    {
+                        if (containsReplaceable(sectionStates[sectionY], kernel))
+                        {
+                            mask |= 1 << sectionY;
+                        }
+                    }
+                    return mask;
+                });
+            }
+        }
+
+        boolean contains(int vein, int y)
+        {
+            // Positions outside of the sections are always checked
+            return y < 0 || y >= 256 || ((masks[vein] >> (y >> 4)) & 1) != 0;
+        }
+
+        /**
+         * Must be called after a block in the chunk is changed
+         */
+        void onWrite(BlockState state, int y)
+        {
+            if (y >= 0 && y < 256)
+            {
+                final boolean[] canReplace = replacedBy.computeIfAbsent(state, key -> {
+                    final boolean[] result = new boolean[kernels.length];
+                    for (int i = 0; i < kernels.length; i++)
+                    {
+                        result[i] = kernels[i].canReplace(key);
+                    }
+                    return result;
+                });
+                final int section = 1 << (y >> 4);
+                for (int i = 0; i < masks.length; i++)
+                {
+                    if (canReplace[i])
+                    {
+                        masks[i] |= section;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the distinct states in each section
+         */
+        private static BlockState[][] getSectionStates(ChunkSection[] sections)
+        {
+            final BlockState[][] sectionStates = new BlockState[sections.length][];
+            final List<BlockState> states = new ArrayList<>();
+            for (int sectionY = 0; sectionY < sections.length; sectionY++)
+            {
+                if (ChunkSection.isEmpty(sections[sectionY]))
+                {
+                    sectionStates[sectionY] = new BlockState[] {Blocks.AIR.getDefaultState()};
+                }
+                else
+                {
+                    states.clear();
+                    sections[sectionY].getData().count((state, count) -> states.add(state));
+                    sectionStates[sectionY] = states.toArray(new BlockState[0]);
+                }
+            }
+            return sectionStates;
+        }
+
+        private static boolean containsReplaceable(BlockState[] states, VeinKernel kernel)
+        {
+            for (BlockState state : states)
+            {
+                if (kernel.canReplace(state))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Where placement reads and writes the blocks of a chunk. This is normally the world, but {@link VeinShadow} also places veins into a scratch buffer
+     */
+    interface BlockTarget extends IBlockReader
+    {
+        void setBlockState(BlockPos pos, BlockState state);
+
+        int getHeight(Heightmap.Type type, int x, int z);
+    }
+
+    /**
+     * Reads and writes blocks directly in the world
+     */
+    final class WorldTarget implements BlockTarget
+    {
+        private final IWorld world;
+        @Nullable private final Long2ObjectMap<BlockState> written;
+
+        /**
+         * @param written if not null, every block written is also recorded here
+         */
+        WorldTarget(IWorld world, @Nullable Long2ObjectMap<BlockState> written)
+        {
+            this.world = world;
+            this.written = written;
+        }
+
+        @Override
+        public void setBlockState(BlockPos pos, BlockState state)
+        {
+            VeinsFeature.this.setBlockState(world, pos, state);
+            if (written != null)
+            {
+                written.put(pos.toLong(), state);
+            }
+        }
+
+        @Override
+        public int getHeight(Heightmap.Type type, int x, int z)
+        {
+            return world.getHeight(type, x, z);
+        }
+
+        @Nullable
+        @Override
+        public TileEntity getTileEntity(BlockPos pos)
+        {
+            return world.getTileEntity(pos);
+        }
+
+        @Override
+        public BlockState getBlockState(BlockPos pos)
+        {
+            return world.getBlockState(pos);
+        }
+
+        @Override
+        public IFluidState getFluidState(BlockPos pos)
+        {
+            return world.getFluidState(pos);
+        }
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world.pregen;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.world.storage.WorldSavedData;
+
+import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
+
+/**
+ * Stores the progress of a pregeneration task, so it can be resumed after a restart.
+ * This is always saved with the overworld, regardless of which dimension is being generated
+ */
+public class PregenData extends WorldSavedData
+{
+    static final String NAME = MOD_ID + "_pregen";
+
+    private boolean active;
+    private ResourceLocation dimension;
+    private int centerX, centerZ;
+    private int radius;
+    private int nextIndex;
+
+    public PregenData()
+    {
+        super(NAME);
+        this.dimension = new ResourceLocation("overworld");
+    }
+
+    public boolean isActive()
+    {
+        return active;
+    }
+
+    public ResourceLocation getDimension()
+    {
+        return dimension;
+    }
+
+    public int getCenterX()
+    {
+        return centerX;
+    }
+
+    public int getCenterZ()
+    {
+        return centerZ;
+    }
+
+    public int getRadius()
+    {
+        return radius;
+    }
+
+    public int getNextIndex()
+    {
+        return nextIndex;
+    }
+
+    public void update(ResourceLocation dimension, int centerX, int centerZ, int radius, int nextIndex)
+    {
+        this.active = true;
+        this.dimension = dimension;
+        this.centerX = centerX;
+        this.centerZ = centerZ;
+        this.radius = radius;
+        this.nextIndex = nextIndex;
+        markDirty();
+    }
+
+    public void clear()
+    {
+        this.active = false;
+        markDirty();
+    }
+
+    @Override
+    public void read(CompoundNBT nbt)
+    {
+        active = nbt.getBoolean("active");
+        dimension = new ResourceLocation(nbt.getString("dimension"));
+        centerX = nbt.getInt("centerX");
+        centerZ = nbt.getInt("centerZ");
+        radius = nbt.getInt("radius");
+        nextIndex = nbt.getInt("nextIndex");
+    }
+
+    @Override
+    public CompoundNBT write(CompoundNBT nbt)
+    {
+        nbt.putBoolean("active", active);
+        nbt.putString("dimension", dimension.toString());
+        nbt.putInt("centerX", centerX);
+        nbt.putInt("centerZ", centerZ);
+        nbt.putInt("radius", radius);
+        nbt.putInt("nextIndex", nextIndex);
+        return nbt;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world.pregen;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.text.ITextComponent;
+import net.minecraft.util.text.TranslationTextComponent;
+import net.minecraft.world.dimension.DimensionType;
+import net.minecraft.world.server.ServerChunkProvider;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraft.world.server.TicketType;
+
+import com.alcatrazescapee.oreveins.Config;
+import com.alcatrazescapee.oreveins.world.VeinCache;
+import com.alcatrazescapee.oreveins.world.VeinsFeature;
+
+import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
+
+/**
+ * Generates a square of chunks in a spiral around a center chunk, in the background.
+ * Chunks are scheduled by adding tickets, so the actual generation happens on the world gen threads. Each server tick only schedules as many chunks as fit in the tick budget, and backs off when the server is lagging.
+ * Progress is saved in {@link PregenData} so generation resumes after a restart.
+ */
+public final class Pregenerator
+{
+    public static final Pregenerator INSTANCE = new Pregenerator();
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final TicketType<ChunkPos> PREGEN_TICKET = TicketType.create(MOD_ID + ":pregen", Comparator.comparingLong(ChunkPos::asLong));
+    private static final long REPORT_INTERVAL = 10_000_000_000L; // 10 seconds, in nanos
+
+    /**
+     * Gets the chunk at a given index of a square spiral around a center chunk.
+     * Index 0 is the center, and indices [(2r - 1)^2, (2r + 1)^2) form the ring at radius r
+     */
+    public static ChunkPos getSpiralPos(int centerX, int centerZ, int index)
+    {
+        if (index == 0)
+        {
+            return new ChunkPos(centerX, centerZ);
+        }
+
+        // Find the ring containing this index, correcting for any floating point error
+        int ring = (int) Math.ceil((Math.sqrt(index + 1) - 1) / 2);
+        while ((long) (2 * ring + 1) * (2 * ring + 1) <= index)
+        {
+            ring++;
+        }
+        while (ring > 1 && (long) (2 * ring - 1) * (2 * ring - 1) > index)
+        {
+            ring--;
+        }
+
+        final int side = 2 * ring;
+        final int offset = index - (2 * ring - 1) * (2 * ring - 1);
+        final int along = offset % side;
+        switch (offset / side)
+        {
+            case 0:
+                return new ChunkPos(centerX + ring, centerZ - ring + 1 + along);
+            case 1:
+                return new ChunkPos(centerX + ring - 1 - along, centerZ + ring);
+            case 2:
+                return new ChunkPos(centerX - ring, centerZ + ring - 1 - along);
+            default:
+                return new ChunkPos(centerX - ring + 1 + along, centerZ - ring);
+        }
+    }
+
+    private static double getAverageTickTime(MinecraftServer server)
+    {
+        long total = 0;
+        for (long time : server.tickTimeArray)
+        {
+            total += time;
+        }
+        return total * 1.0E-6D / server.tickTimeArray.length;
+    }
+
+    private static String formatDuration(long seconds)
+    {
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    @Nullable private Task task;
+    private boolean loaded;
+
+    private Pregenerator() {}
+
+    /**
+     * Starts a new task, replacing any currently running one
+     */
+    public void start(MinecraftServer server, DimensionType dimension, int centerX, int centerZ, int radius)
+    {
+        stop(server);
+
+        task = new Task(dimension, centerX, centerZ, radius, 0);
+        saveProgress(server);
+        LOGGER.info("Started pregenerating {} chunks around [{}, {}] in {}", task.total, centerX, centerZ, DimensionType.getKey(dimension));
+    }
+
+    /**
+     * Stops the current task, if any, and forgets about it
+     *
+     * @return true if a task was stopped
+     */
+    public boolean stop(MinecraftServer server)
+    {
+        if (task != null)
+        {
+            final ServerChunkProvider chunkProvider = server.getWorld(task.dimension).getChunkProvider();
+            for (Entry entry : task.inFlight)
+            {
+                chunkProvider.releaseTicket(PREGEN_TICKET, entry.pos, 0, entry.pos);
+            }
+            task = null;
+            getData(server).clear();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called when the server is stopping. This saves the progress of any current task, to be resumed on the next start.
+     */
+    public void pause(MinecraftServer server)
+    {
+        if (task != null)
+        {
+            saveProgress(server);
+            task = null;
+        }
+        loaded = false;
+    }
+
+    @Nullable
+    public ITextComponent getStatus()
+    {
+        return task != null ? task.getStatus() : null;
+    }
+
+    public void tick(MinecraftServer server)
+    {
+        if (!loaded)
+        {
+            loaded = true;
+            resume(server);
+        }
+        if (task == null)
+        {
+            return;
+        }
+
+        final ServerWorld world = server.getWorld(task.dimension);
+        final ServerChunkProvider chunkProvider = world.getChunkProvider();
+
+        // Release all chunks which have finished generating
+        final Iterator<Entry> iterator = task.inFlight.iterator();
+        while (iterator.hasNext())
+        {
+            final Entry entry = iterator.next();
+            if (chunkProvider.chunkExists(entry.pos.x, entry.pos.z))
+            {
+                chunkProvider.releaseTicket(PREGEN_TICKET, entry.pos, 0, entry.pos);
+                iterator.remove();
+                task.completed++;
+            }
+        }
+
+        // Back off quickly if the server is lagging, and recover slowly otherwise
+        if (getAverageTickTime(server) > Config.COMMON.pregenTargetTickTime.get())
+        {
+            task.inFlightLimit = Math.max(1, task.inFlightLimit / 2);
+        }
+        else if (task.inFlightLimit < Config.COMMON.pregenMaxChunksInFlight.get())
+        {
+            task.inFlightLimit++;
+        }
+
+        // Schedule new chunks, until we run out of time in this tick
+        final long deadline = System.nanoTime() + Config.COMMON.pregenTickBudget.get() * 1_000_000L;
+        final int veinRadius = VeinsFeature.getChunkRadius();
+        while (task.inFlight.size() < task.inFlightLimit && task.nextIndex < task.total && System.nanoTime() < deadline)
+        {
+            final ChunkPos pos = getSpiralPos(task.centerX, task.centerZ, task.nextIndex);
+
+            // Warm the vein cache, so when this chunk is decorated it's neighborhood is already present
+            VeinCache.INSTANCE.warm(pos.x, pos.z, world.getSeed(), veinRadius);
+
+            chunkProvider.registerTicket(PREGEN_TICKET, pos, 0, pos);
+            task.inFlight.add(new Entry(pos, task.nextIndex));
+            task.nextIndex++;
+        }
+
+        if (task.nextIndex >= task.total && task.inFlight.isEmpty())
+        {
+            LOGGER.info("Finished pregenerating {} chunks in {}", task.total, formatDuration((System.nanoTime() - task.startTime) / 1_000_000_000L));
+            task = null;
+            getData(server).clear();
+        }
+        else if (System.nanoTime() - task.lastReport > REPORT_INTERVAL)
+        {
+            task.lastReport = System.nanoTime();
+            LOGGER.info("Pregenerating {}: {} / {} chunks ({}%), {} chunks/s, ETA {}, {} in flight", task.getStatusArgs());
+            saveProgress(server);
+        }
+    }
+
+    private void resume(MinecraftServer server)
+    {
+        final PregenData data = getData(server);
+        if (data.isActive())
+        {
+            final DimensionType dimension = DimensionType.byName(data.getDimension());
+            if (dimension == null)
+            {
+                LOGGER.warn("Unable to resume pregeneration in unknown dimension {}", data.getDimension());
+                data.clear();
+                return;
+            }
+            task = new Task(dimension, data.getCenterX(), data.getCenterZ(), data.getRadius(), data.getNextIndex());
+            LOGGER.info("Resuming pregeneration at {} / {} chunks", task.nextIndex, task.total);
+        }
+    }
+
+    private void saveProgress(MinecraftServer server)
+    {
+        if (task != null)
+        {
+            getData(server).update(DimensionType.getKey(task.dimension), task.centerX, task.centerZ, task.radius, task.getResumeIndex());
+        }
+    }
+
+    private PregenData getData(MinecraftServer server)
+    {
+        return server.getWorld(DimensionType.OVERWORLD).getSavedData().getOrCreate(PregenData::new, PregenData.NAME);
+    }
+
+    private static final class Task
+    {
+        private final DimensionType dimension;
+        private final int centerX, centerZ, radius;
+        private final int total;
+        private final long startTime;
+        private final List<Entry> inFlight;
+
+        private int nextIndex;
+        private int completed;
+        private int inFlightLimit;
+        private long lastReport;
+
+        private Task(DimensionType dimension, int centerX, int centerZ, int radius, int nextIndex)
+        {
+            this.dimension = dimension;
+            this.centerX = centerX;
+            this.centerZ = centerZ;
+            this.radius = radius;
+            this.total = (2 * radius + 1) * (2 * radius + 1);
+            this.startTime = this.lastReport = System.nanoTime();
+            this.inFlight = new ArrayList<>();
+
+            this.nextIndex = nextIndex;
+            this.inFlightLimit = 1;
+        }
+
+        /**
+         * Chunks can finish out of order, so everything before the earliest chunk still in flight is known to be done
+         */
+        private int getResumeIndex()
+        {
+            int index = nextIndex;
+            for (Entry entry : inFlight)
+            {
+                index = Math.min(index, entry.index);
+            }
+            return index;
+        }
+
+        private ITextComponent getStatus()
+        {
+            return new TranslationTextComponent(MOD_ID + ".command.pregen_status", getStatusArgs());
+        }
+
+        /**
+         * @return [dimension, chunks done, total chunks, percent done, chunks per second, eta, chunks in flight]
+         */
+        private Object[] getStatusArgs()
+        {
+            final int done = getResumeIndex();
+            final double seconds = (System.nanoTime() - startTime) * 1.0E-9D;
+            final double chunksPerSecond = seconds > 0 ? completed / seconds : 0;
+            final String eta = chunksPerSecond > 0 ? formatDuration((long) ((total - done) / chunksPerSecond)) : "?";
+            return new Object[] {DimensionType.getKey(dimension), done, total, String.format("%.1f", 100.0 * done / total), String.format("%.1f", chunksPerSecond), eta, inFlight.size()};
+        }
+    }
+
+    private static final class Entry
+    {
+        private final ChunkPos pos;
+        private final int index;
+
+        private Entry(ChunkPos pos, int index)
+        {
+            this.pos = pos;
+            this.index = index;
+        }
+    }
+}
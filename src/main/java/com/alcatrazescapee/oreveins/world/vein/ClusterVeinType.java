@@ -10,6 +10,7 @@ import java.util.Random;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import net.minecraft.util.JSONUtils;
 import net.minecraft.util.math.BlockPos;
 
@@ -17,6 +18,8 @@ import static com.alcatrazescapee.oreveins.world.vein.ClusterVeinType.VeinCluste
 
 public class ClusterVeinType extends SingleVeinType<VeinCluster>
 {
+    private static final int CLUSTER_SIZE = 4;
+
     private final int clusters;
 
     public ClusterVeinType(JsonObject obj, JsonDeserializationContext context) throws JsonParseException
@@ -38,19 +41,34 @@ public class ClusterVeinType extends SingleVeinType<VeinCluster>
     @Override
     public float getChanceToGenerate(VeinCluster vein, BlockPos pos)
     {
+        if (!vein.isInBounds(pos))
+        {
+            return 0; // Outside of every cluster
+        }
+
         float shortestRadius = -1;
-        for (Cluster c : vein.spawnPoints)
+        final double[] spawnPoints = vein.spawnPoints;
+        final int[] extents = vein.extents;
+        for (int i = 0, offset = vein.offset; i <= clusters; i++, offset += CLUSTER_SIZE)
         {
-            final double dx = Math.pow(c.pos.getX() - pos.getX(), 2);
-            final double dy = Math.pow(c.pos.getY() - pos.getY(), 2);
-            final double dz = Math.pow(c.pos.getZ() - pos.getZ(), 2);
+            // Skip clusters which have a radius >= 1 here, as they can't have a positive chance
+            final int horizontalExtent = extents[2 * i], verticalExtent = extents[2 * i + 1];
+            if (Math.abs((int) spawnPoints[offset] - pos.getX()) >= horizontalExtent || Math.abs((int) spawnPoints[offset + 2] - pos.getZ()) >= horizontalExtent || Math.abs((int) spawnPoints[offset + 1] - pos.getY()) >= verticalExtent)
+            {
+                continue;
+            }
+
+            final double dx = Math.pow(spawnPoints[offset] - pos.getX(), 2);
+            final double dy = Math.pow(spawnPoints[offset + 1] - pos.getY(), 2);
+            final double dz = Math.pow(spawnPoints[offset + 2] - pos.getZ(), 2);
+            final float size = (float) spawnPoints[offset + 3];
 
-            final float radius = (float) ((dx + dz) / (horizontalSize * horizontalSize * c.size) +
-                dy / (verticalSize * verticalSize * c.size));
+            final float radius = (float) ((dx + dz) / (horizontalSize * horizontalSize * size) +
+                dy / (verticalSize * verticalSize * size));
 
             if (shortestRadius == -1 || radius < shortestRadius) shortestRadius = radius;
         }
-        return 0.005f * density * (1.0f - shortestRadius);
+        return shortestRadius == -1 ? 0 : 0.005f * density * (1.0f - shortestRadius);
     }
 
     @Override
@@ -59,17 +77,35 @@ public class ClusterVeinType extends SingleVeinType<VeinCluster>
         return new VeinCluster(this, defaultStartPos(chunkX, chunkZ, random), random);
     }
 
+    @Override
+    public void writeParameters(VeinCluster vein, DoubleArrayList out)
+    {
+        out.addElements(out.size(), vein.spawnPoints, vein.offset, (1 + clusters) * CLUSTER_SIZE);
+    }
+
+    @Override
+    public VeinCluster createView(BlockPos pos, double[] parameters, int offset)
+    {
+        return new VeinCluster(this, pos, parameters, offset);
+    }
+
     static class VeinCluster extends Vein<ClusterVeinType>
     {
-        private final Cluster[] spawnPoints;
+        // The x, y, z and size of each cluster. Positions are integers, and sizes are floats, both of which doubles hold exactly
+        private final double[] spawnPoints;
+        private final int offset;
+        // The horizontal and vertical distance from each cluster at which it's radius is >= 1, and the box containing all clusters within those distances
+        private int[] extents;
+        private int minX, minY, minZ, maxX, maxY, maxZ;
 
         private VeinCluster(ClusterVeinType type, BlockPos pos, Random rand)
         {
             super(type, pos);
 
             int clusters = 1 + type.clusters; // main cluster + smaller outside ones
-            spawnPoints = new Cluster[clusters];
-            spawnPoints[0] = new Cluster(pos, 0.6f + 0.2f * rand.nextFloat());
+            spawnPoints = new double[clusters * CLUSTER_SIZE];
+            offset = 0;
+            setCluster(0, pos, 0.6f + 0.2f * rand.nextFloat());
             for (int i = 1; i < clusters; i++)
             {
                 final BlockPos clusterPos = pos.add(
@@ -77,8 +113,17 @@ public class ClusterVeinType extends SingleVeinType<VeinCluster>
                     type.verticalSize * (0.3f - 0.6f * rand.nextFloat()),
                     type.horizontalSize * (0.3f - 0.6f * rand.nextFloat())
                 );
-                spawnPoints[i] = new Cluster(clusterPos, 0.2f + 0.5f * rand.nextFloat());
+                setCluster(i, clusterPos, 0.2f + 0.5f * rand.nextFloat());
             }
+            computeBounds(type);
+        }
+
+        private VeinCluster(ClusterVeinType type, BlockPos pos, double[] spawnPoints, int offset)
+        {
+            super(type, pos);
+            this.spawnPoints = spawnPoints;
+            this.offset = offset;
+            computeBounds(type);
         }
 
         @Override
@@ -92,17 +137,43 @@ public class ClusterVeinType extends SingleVeinType<VeinCluster>
         {
             return getType().getChanceToGenerate(this, pos);
         }
-    }
 
-    private static class Cluster
-    {
-        private final BlockPos pos;
-        private final float size;
+        private boolean isInBounds(BlockPos pos)
+        {
+            return pos.getX() >= minX && pos.getX() <= maxX && pos.getY() >= minY && pos.getY() <= maxY && pos.getZ() >= minZ && pos.getZ() <= maxZ;
+        }
+
+        private void computeBounds(ClusterVeinType type)
+        {
+            final int clusters = 1 + type.clusters;
+            extents = new int[2 * clusters];
+            minX = minY = minZ = Integer.MAX_VALUE;
+            maxX = maxY = maxZ = Integer.MIN_VALUE;
+            for (int i = 0, offset = this.offset; i < clusters; i++, offset += CLUSTER_SIZE)
+            {
+                // The radius is >= 1 when the squared distance on one axis is >= the denominator used for that axis. One is added to be safe from rounding
+                final float size = (float) spawnPoints[offset + 3];
+                final int horizontalExtent = 1 + (int) Math.ceil(Math.sqrt(type.horizontalSize * type.horizontalSize * size));
+                final int verticalExtent = 1 + (int) Math.ceil(Math.sqrt(type.verticalSize * type.verticalSize * size));
+                extents[2 * i] = horizontalExtent;
+                extents[2 * i + 1] = verticalExtent;
+
+                final int x = (int) spawnPoints[offset], y = (int) spawnPoints[offset + 1], z = (int) spawnPoints[offset + 2];
+                minX = Math.min(minX, x - horizontalExtent + 1);
+                maxX = Math.max(maxX, x + horizontalExtent - 1);
+                minY = Math.min(minY, y - verticalExtent + 1);
+                maxY = Math.max(maxY, y + verticalExtent - 1);
+                minZ = Math.min(minZ, z - horizontalExtent + 1);
+                maxZ = Math.max(maxZ, z + horizontalExtent - 1);
+            }
+        }
 
-        private Cluster(BlockPos pos, float size)
+        private void setCluster(int index, BlockPos pos, float size)
         {
-            this.pos = pos;
-            this.size = size;
+            spawnPoints[index * CLUSTER_SIZE] = pos.getX();
+            spawnPoints[index * CLUSTER_SIZE + 1] = pos.getY();
+            spawnPoints[index * CLUSTER_SIZE + 2] = pos.getZ();
+            spawnPoints[index * CLUSTER_SIZE + 3] = size;
         }
     }
 }
@@ -51,4 +51,85 @@ public class ConeVeinType extends SingleVeinType<Vein<?>>
         final float maxR = (1f - shape * dy) * horizontalSize;
         return 0.005f * density * (1.0f - (float) (dx + dz) / (maxR * maxR)); // Otherwise calculate from radius
     }
+
+    @Override
+    public VeinKernel compile()
+    {
+        return new ConeKernel(this);
+    }
+
+    /**
+     * The radius of a cone only depends on the vertical offset from the vein, so the squared radius is looked up from a table indexed by the vertical offset.
+     */
+    private static final class ConeKernel extends Kernel
+    {
+        private final float verticalScale, shape, chanceScale;
+        private final int horizontalSize;
+        private final boolean inverted;
+        private final float[] radiusSqTable; // The squared radius at each vertical offset, or -1 outside of the cone
+
+        private ConeKernel(ConeVeinType type)
+        {
+            super(type);
+            this.verticalScale = type.verticalSize * 2f;
+            this.shape = type.shape;
+            this.chanceScale = 0.005f * type.density;
+            this.horizontalSize = type.horizontalSize;
+            this.inverted = type.inverted;
+
+            radiusSqTable = new float[2 * MAX_VERTICAL_OFFSET + 1];
+            for (int i = 0; i < radiusSqTable.length; i++)
+            {
+                radiusSqTable[i] = computeRadiusSq(i - MAX_VERTICAL_OFFSET);
+            }
+        }
+
+        @Override
+        public float getChanceToGenerate(Vein<?> vein, int x, int y, int z)
+        {
+            final BlockPos center = vein.getPos();
+            final float radiusSq = getRadiusSq(y - center.getY());
+            if (radiusSq < 0)
+            {
+                return 0;
+            }
+
+            // Squares of integers are exact, so this is the same as Math.pow(d, 2)
+            final long dx = center.getX() - x, dz = center.getZ() - z;
+            return chanceScale * (1.0f - (float) (dx * dx + dz * dz) / radiusSq);
+        }
+
+        @Override
+        public void getChances(Vein<?> vein, int originX, int originY, int originZ, int x, int z, int minY, int maxY, float[] out, int offset)
+        {
+            final long dx = originX - x, dz = originZ - z;
+            final float distanceSq = (float) (dx * dx + dz * dz);
+            for (int y = minY; y <= maxY; y++)
+            {
+                final float radiusSq = getRadiusSq(y - originY);
+                out[offset++] = radiusSq < 0 ? 0 : chanceScale * (1.0f - distanceSq / radiusSq);
+            }
+        }
+
+        private float getRadiusSq(int dy)
+        {
+            final int index = dy + MAX_VERTICAL_OFFSET;
+            return index >= 0 && index < radiusSqTable.length ? radiusSqTable[index] : computeRadiusSq(dy);
+        }
+
+        private float computeRadiusSq(int offsetY)
+        {
+            float dy = 0.5f + offsetY / verticalScale;
+            if (inverted)
+            {
+                dy = 1f - dy;
+            }
+            if (dy > 1f || dy < 0f)
+            {
+                return -1;
+            }
+            final float maxR = (1f - shape * dy) * horizontalSize;
+            return maxR * maxR;
+        }
+    }
 }
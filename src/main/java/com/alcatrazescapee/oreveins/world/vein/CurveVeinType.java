@@ -5,13 +5,12 @@
 
 package com.alcatrazescapee.oreveins.world.vein;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
 
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import net.minecraft.util.JSONUtils;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
@@ -20,6 +19,8 @@ import static com.alcatrazescapee.oreveins.world.vein.CurveVeinType.VeinCurve;
 
 public class CurveVeinType extends SingleVeinType<VeinCurve>
 {
+    private static final int SEGMENT_SIZE = 6;
+
     private final float radius;
     private final float angle;
 
@@ -47,23 +48,25 @@ public class CurveVeinType extends SingleVeinType<VeinCurve>
     @Override
     public float getChanceToGenerate(VeinCurve vein, BlockPos pos)
     {
-        for (CurveSegment segment : vein.getSegmentList())
+        final double[] segments = vein.segments;
+        for (int i = 0, offset = vein.offset; i < vein.count; i++, offset += SEGMENT_SIZE)
         {
-            Vec3d blockPos = new Vec3d(pos);
-            Vec3d centeredPos = blockPos.subtract(segment.begin);
+            double centeredX = pos.getX() - segments[offset];
+            double centeredY = pos.getY() - segments[offset + 1];
+            double centeredZ = pos.getZ() - segments[offset + 2];
 
             // rotate block pos around Y axis
-            double yaw = segment.yaw;
-            Vec3d posX = new Vec3d(Math.cos(yaw) * centeredPos.x + Math.sin(yaw) * centeredPos.z, centeredPos.y, -Math.sin(yaw) * centeredPos.x + Math.cos(yaw) * centeredPos.z);
+            double yaw = segments[offset + 4];
+            double posXx = Math.cos(yaw) * centeredX + Math.sin(yaw) * centeredZ, posXy = centeredY, posXz = -Math.sin(yaw) * centeredX + Math.cos(yaw) * centeredZ;
 
             // rotate block pos around Z axis
-            double pitch = segment.pitch;
-            Vec3d posY = new Vec3d(Math.cos(pitch) * posX.x - Math.sin(pitch) * posX.y, Math.sin(pitch) * posX.x + Math.cos(pitch) * posX.y, posX.z);
+            double pitch = segments[offset + 5];
+            double posYx = Math.cos(pitch) * posXx - Math.sin(pitch) * posXy, posYy = Math.sin(pitch) * posXx + Math.cos(pitch) * posXy, posYz = posXz;
 
-            double rad = Math.sqrt(posY.x * posY.x + posY.z * posY.z);
-            double length = segment.length;
+            double rad = Math.sqrt(posYx * posYx + posYz * posYz);
+            double length = segments[offset + 3];
 
-            if (((posY.y >= 0 && posY.y <= length) || (posY.y < 0 && posY.y >= length)) && rad < this.radius)
+            if (((posYy >= 0 && posYy <= length) || (posYy < 0 && posYy >= length)) && rad < this.radius)
             {
                 return 0.005f * density * (1f - 0.9f * (float) rad / this.radius);
             }
@@ -80,17 +83,54 @@ public class CurveVeinType extends SingleVeinType<VeinCurve>
         return new VeinCurve(this, pos, rand);
     }
 
+    @Override
+    public void writeParameters(VeinCurve vein, DoubleArrayList out)
+    {
+        // The seed is split in two, as each half is exactly representable as a double
+        out.add((int) (vein.seed >>> 32));
+        out.add((int) vein.seed);
+        out.add(vein.count);
+        out.addElements(out.size(), vein.segments, vein.offset, vein.count * SEGMENT_SIZE);
+    }
+
+    @Override
+    public VeinCurve createView(BlockPos pos, double[] parameters, int offset)
+    {
+        return new VeinCurve(this, pos, parameters, offset);
+    }
+
     static class VeinCurve extends Vein<CurveVeinType>
     {
-        private final Random rand;
-        private final List<CurveSegment> segmentList;
-        private boolean isInitialized = false;
+        private final long seed;
+        // The begin x, y, z, length, yaw and pitch of each segment
+        private double[] segments;
+        private int offset, count;
 
         VeinCurve(CurveVeinType type, BlockPos pos, Random random)
         {
             super(type, pos);
-            this.rand = new Random(random.nextLong());
-            this.segmentList = new ArrayList<>();
+            this.seed = random.nextLong();
+
+            // Initialized eagerly, as veins may be cached and shared between world gen threads
+            initialize(new Random(seed), type.horizontalSize, type.verticalSize, type.angle);
+        }
+
+        private VeinCurve(CurveVeinType type, BlockPos pos, double[] parameters, int offset)
+        {
+            super(type, pos);
+            this.seed = ((long) (int) parameters[offset] << 32) | ((int) parameters[offset + 1] & 0xFFFFFFFFL);
+            this.count = (int) parameters[offset + 2];
+            this.segments = parameters;
+            this.offset = offset + 3;
+        }
+
+        @Override
+        public void setPos(BlockPos pos)
+        {
+            super.setPos(pos);
+
+            // The curve is relative to the vein position, so it needs to be rebuilt
+            initialize(new Random(seed), getType().horizontalSize, getType().verticalSize, getType().angle);
         }
 
         @Override
@@ -102,18 +142,9 @@ public class CurveVeinType extends SingleVeinType<VeinCurve>
         @Override
         public float getChanceToGenerate(BlockPos pos)
         {
-            if (!isInitialized)
-            {
-                initialize(getType().horizontalSize, getType().verticalSize, getType().angle);
-            }
             return getType().getChanceToGenerate(this, pos);
         }
 
-        List<CurveSegment> getSegmentList()
-        {
-            return segmentList;
-        }
-
         private Vec3d getRandomPointInCuboid(Random rand, Vec3d bottomLeft, Vec3d topRight)
         {
             final double x = bottomLeft.x + (topRight.x - bottomLeft.x) * rand.nextDouble();
@@ -123,7 +154,7 @@ public class CurveVeinType extends SingleVeinType<VeinCurve>
             return new Vec3d(x, y, z);
         }
 
-        private void initialize(int hSize, int vSize, float angle)
+        private void initialize(Random rand, int hSize, int vSize, float angle)
         {
             double kxy = Math.tan(angle * (1.0f - 2.0f * rand.nextFloat()));
             double kyz = Math.tan(angle * (1.0f - 2.0f * rand.nextFloat()));
@@ -163,6 +194,7 @@ public class CurveVeinType extends SingleVeinType<VeinCurve>
             p3 = getRandomPointInCuboid(rand, bottomLeft, topRight);
 
             // curve segmentation setup
+            final DoubleArrayList segmentList = new DoubleArrayList();
             double step = 5.0 / h2Size;
             double t = 0.0;
             Vec3d pb, pe = new Vec3d(0.0, 0.0, 0.0);
@@ -199,26 +231,17 @@ public class CurveVeinType extends SingleVeinType<VeinCurve>
                         Math.sin(pitch) * axisX.x + Math.cos(pitch) * axisX.y,
                         axisX.z);
 
-                segmentList.add(new CurveSegment(pb, axisY.y, yaw, pitch));
+                segmentList.add(pb.x);
+                segmentList.add(pb.y);
+                segmentList.add(pb.z);
+                segmentList.add(axisY.y);
+                segmentList.add(yaw);
+                segmentList.add(pitch);
             }
 
-            isInitialized = true;
-        }
-    }
-
-    private static class CurveSegment
-    {
-        final Vec3d begin;
-        final double length;
-        final double yaw;
-        final double pitch;
-
-        CurveSegment(Vec3d begin, double length, double yaw, double pitch)
-        {
-            this.begin = begin;
-            this.length = length;
-            this.yaw = yaw;
-            this.pitch = pitch;
+            segments = segmentList.toDoubleArray();
+            offset = 0;
+            count = segments.length / SEGMENT_SIZE;
         }
     }
 }
@@ -23,6 +23,7 @@ import net.minecraft.util.math.BlockPos;
 public class MultipleVeinType extends VeinType<Vein<?>>
 {
     private final List<VeinType<?>> types;
+    private final List<BlockState> oreStates;
 
     public MultipleVeinType(JsonObject json, JsonDeserializationContext context) throws JsonParseException
     {
@@ -33,6 +34,7 @@ public class MultipleVeinType extends VeinType<Vein<?>>
         {
             throw new IllegalStateException("Multiple vein must have at least two child veins!");
         }
+        oreStates = types.stream().map(VeinType::getOreStates).flatMap(Collection::stream).collect(Collectors.toList());
     }
 
     @Override
@@ -44,7 +46,7 @@ public class MultipleVeinType extends VeinType<Vein<?>>
     @Override
     public Collection<BlockState> getOreStates()
     {
-        return types.stream().map(VeinType::getOreStates).flatMap(Collection::stream).collect(Collectors.toList());
+        return oreStates;
     }
 
     @Nullable
@@ -54,6 +56,12 @@ public class MultipleVeinType extends VeinType<Vein<?>>
         throw new IllegalStateException("This should never be called directly");
     }
 
+    @Override
+    public Collection<VeinType<?>> getChildTypes()
+    {
+        return types;
+    }
+
     @Override
     public int getChunkRadius()
     {
@@ -82,6 +90,12 @@ public class MultipleVeinType extends VeinType<Vein<?>>
         });
     }
 
+    @Override
+    public Vein<?> createView(BlockPos pos, double[] parameters, int offset)
+    {
+        return new MultipleVein(this, pos);
+    }
+
     public static class MultipleVein extends Vein<MultipleVeinType>
     {
         MultipleVein(MultipleVeinType type, BlockPos pos)
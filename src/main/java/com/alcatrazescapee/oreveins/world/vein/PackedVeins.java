@@ -0,0 +1,189 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world.vein;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * A compact, immutable list of veins, used to hold large numbers of veins in caches.
+ * Each vein is stored as a type reference, a long encoded position, and any parameters of the vein (such as cluster positions or curve segments) in a single shared primitive array.
+ *
+ * {@link #get(int)} returns a new view of the vein each time, which reads its parameters from the shared arrays. Views are detached: changing the position of a view does not change this list.
+ */
+public final class PackedVeins extends AbstractList<Vein<?>> implements RandomAccess
+{
+    public static final PackedVeins EMPTY = new PackedVeins(new VeinType<?>[0], new long[0], null, new double[0]);
+
+    public static PackedVeins of(List<Vein<?>> veins)
+    {
+        if (veins.isEmpty())
+        {
+            return EMPTY;
+        }
+
+        final int size = veins.size();
+        final VeinType<?>[] types = new VeinType<?>[size];
+        final long[] positions = new long[size];
+        final int[] offsets = new int[size];
+        final DoubleArrayList parameters = new DoubleArrayList();
+        for (int i = 0; i < size; i++)
+        {
+            final Vein<?> vein = veins.get(i);
+            types[i] = vein.getType();
+            positions[i] = vein.getPos().toLong();
+            offsets[i] = parameters.size();
+            writeParameters(vein, parameters);
+        }
+        // Most vein types have no parameters, in which case the offsets aren't needed
+        return parameters.isEmpty() ? new PackedVeins(types, positions, null, new double[0]) : new PackedVeins(types, positions, offsets, parameters.toDoubleArray());
+    }
+
+    /**
+     * Reads veins written by {@link #write(ByteBuffer, VeinType)}
+     *
+     * @param root the vein type that the veins were created by
+     */
+    public static PackedVeins read(ByteBuffer buffer, VeinType<?> root)
+    {
+        final int size = buffer.getInt(), parameterCount = buffer.getInt();
+        if (size == 0)
+        {
+            return EMPTY;
+        }
+
+        final List<VeinType<?>> localTypes = getLocalTypes(root);
+        final VeinType<?>[] types = new VeinType<?>[size];
+        final long[] positions = new long[size];
+        for (int i = 0; i < size; i++)
+        {
+            types[i] = localTypes.get(buffer.getShort());
+            positions[i] = buffer.getLong();
+        }
+
+        int[] offsets = null;
+        final double[] parameters = new double[parameterCount];
+        if (parameterCount > 0)
+        {
+            offsets = new int[size];
+            for (int i = 0; i < size; i++)
+            {
+                offsets[i] = buffer.getInt();
+            }
+            for (int i = 0; i < parameterCount; i++)
+            {
+                parameters[i] = buffer.getDouble();
+            }
+        }
+        return new PackedVeins(types, positions, offsets, parameters);
+    }
+
+    /**
+     * A type and all of its child types, recursively. Veins created by a type can be of any of these types
+     */
+    private static List<VeinType<?>> getLocalTypes(VeinType<?> root)
+    {
+        final List<VeinType<?>> types = new ArrayList<>();
+        types.add(root);
+        for (int i = 0; i < types.size(); i++)
+        {
+            types.addAll(types.get(i).getChildTypes());
+        }
+        return types;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V extends Vein<?>> void writeParameters(Vein<?> vein, DoubleArrayList out)
+    {
+        ((VeinType<V>) vein.getType()).writeParameters((V) vein, out);
+    }
+
+    private final VeinType<?>[] types;
+    private final long[] positions;
+    @Nullable private final int[] offsets;
+    private final double[] parameters;
+
+    private PackedVeins(VeinType<?>[] types, long[] positions, @Nullable int[] offsets, double[] parameters)
+    {
+        this.types = types;
+        this.positions = positions;
+        this.offsets = offsets;
+        this.parameters = parameters;
+    }
+
+    @Override
+    public Vein<?> get(int index)
+    {
+        return types[index].createView(BlockPos.fromLong(positions[index]), parameters, offsets != null ? offsets[index] : 0);
+    }
+
+    @Override
+    public int size()
+    {
+        return types.length;
+    }
+
+    /**
+     * Writes these veins to a buffer. Types are written as an index into the root type and its children, so they can only be read back with the same root type.
+     *
+     * @param root the vein type that the veins were created by
+     */
+    public void write(ByteBuffer buffer, VeinType<?> root)
+    {
+        buffer.putInt(types.length);
+        buffer.putInt(parameters.length);
+        if (types.length == 0)
+        {
+            return;
+        }
+
+        final List<VeinType<?>> localTypes = getLocalTypes(root);
+        for (int i = 0; i < types.length; i++)
+        {
+            int localType = 0;
+            while (localTypes.get(localType) != types[i])
+            {
+                localType++;
+            }
+            buffer.putShort((short) localType);
+            buffer.putLong(positions[i]);
+        }
+        if (offsets != null)
+        {
+            for (int offset : offsets)
+            {
+                buffer.putInt(offset);
+            }
+            for (double parameter : parameters)
+            {
+                buffer.putDouble(parameter);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes used by {@link #write(ByteBuffer, VeinType)}
+     */
+    public int getSerializedSize()
+    {
+        return 8 + 10 * types.length + (offsets != null ? 4 * offsets.length + 8 * parameters.length : 0);
+    }
+
+    /**
+     * An estimate of the heap used by this list, in bytes, not including the vein types which are shared
+     */
+    public long getSizeInBytes()
+    {
+        return 16L * 5 + 4L * types.length + 8L * positions.length + (offsets != null ? 4L * offsets.length : 0) + 8L * parameters.length;
+    }
+}
@@ -38,4 +38,62 @@ public class PipeVeinType extends SingleVeinType<Vein<?>>
             return 0.005f * density * (1f - Math.abs(vein.getPos().getY() - pos.getY()) / sizeMod * 1.3f);
         }
     }
+
+    @Override
+    public VeinKernel compile()
+    {
+        return new PipeKernel(this);
+    }
+
+    /**
+     * Pipes have no horizontal falloff, so the chance is looked up from a table indexed by the vertical distance from the vein.
+     */
+    private static final class PipeKernel extends Kernel
+    {
+        private final float sizeMod, innerSize, chanceScale;
+        private final float[] chanceTable;
+
+        private PipeKernel(PipeVeinType type)
+        {
+            super(type);
+            this.sizeMod = type.verticalSize;
+            this.innerSize = sizeMod * 0.7f;
+            this.chanceScale = 0.005f * type.density;
+
+            chanceTable = new float[MAX_VERTICAL_OFFSET + 1];
+            for (int i = 0; i < chanceTable.length; i++)
+            {
+                chanceTable[i] = computeChance(i);
+            }
+        }
+
+        @Override
+        public float getChanceToGenerate(Vein<?> vein, int x, int y, int z)
+        {
+            return getChance(Math.abs(vein.getPos().getY() - y));
+        }
+
+        @Override
+        public void getChances(Vein<?> vein, int originX, int originY, int originZ, int x, int z, int minY, int maxY, float[] out, int offset)
+        {
+            for (int y = minY; y <= maxY; y++)
+            {
+                out[offset++] = getChance(Math.abs(originY - y));
+            }
+        }
+
+        private float getChance(int dy)
+        {
+            return dy < chanceTable.length ? chanceTable[dy] : computeChance(dy);
+        }
+
+        private float computeChance(int dy)
+        {
+            if (dy < innerSize)
+            {
+                return chanceScale;
+            }
+            return chanceScale * (1f - dy / sizeMod * 1.3f);
+        }
+    }
 }
@@ -19,6 +19,7 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.IBlockReader;
 
 import com.alcatrazescapee.oreveins.util.collections.IWeightedList;
+import com.alcatrazescapee.oreveins.world.rule.IRule;
 
 public abstract class SingleVeinType<V extends Vein<?>> extends VeinType<V>
 {
@@ -52,10 +53,15 @@ public abstract class SingleVeinType<V extends Vein<?>> extends VeinType<V>
     }
 
     @Override
-    public boolean canGenerateAt(IBlockReader world, BlockPos pos)
+    public boolean canGenerateAt(IBlockReader world, BlockPos pos, BlockState state)
     {
-        BlockState stoneState = world.getBlockState(pos);
-        return stoneStates.test(stoneState) && super.canGenerateAt(world, pos);
+        return stoneStates.test(state) && super.canGenerateAt(world, pos, state);
+    }
+
+    @Override
+    public boolean canReplace(BlockState state)
+    {
+        return stoneStates.test(state);
     }
 
     @Override
@@ -74,4 +80,60 @@ public abstract class SingleVeinType<V extends Vein<?>> extends VeinType<V>
     {
         return new Vein<>(this, defaultStartPos(chunkX, chunkZ, random));
     }
+
+    /**
+     * A base for compiled kernels, which checks the stone states and rules with a flat array, and the default horizontal range.
+     */
+    protected abstract static class Kernel implements VeinKernel
+    {
+        /**
+         * The maximum number of entries in a lookup table. Kernels which would need larger tables compute chances directly instead
+         */
+        protected static final int MAX_TABLE_SIZE = 1 << 16;
+        /**
+         * The largest vertical offset between a vein and a block in the world. Larger offsets can't use lookup tables
+         */
+        protected static final int MAX_VERTICAL_OFFSET = 255;
+
+        private final Predicate<BlockState> stoneStates;
+        private final IRule[] rules;
+        private final int horizontalSizeSq;
+
+        protected Kernel(SingleVeinType<?> type)
+        {
+            this.stoneStates = type.stoneStates;
+            this.rules = type.getRules();
+            this.horizontalSizeSq = type.horizontalSize * type.horizontalSize;
+        }
+
+        @Override
+        public boolean inRange(Vein<?> vein, int x, int z)
+        {
+            final int dx = vein.getPos().getX() - x, dz = vein.getPos().getZ() - z;
+            return dx * dx + dz * dz < horizontalSizeSq;
+        }
+
+        @Override
+        public final boolean canReplace(BlockState state)
+        {
+            return stoneStates.test(state);
+        }
+
+        @Override
+        public final boolean canGenerateAt(IBlockReader world, BlockPos pos, BlockState state)
+        {
+            if (!stoneStates.test(state))
+            {
+                return false;
+            }
+            for (IRule rule : rules)
+            {
+                if (!rule.test(world, pos))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
@@ -6,6 +6,7 @@
 package com.alcatrazescapee.oreveins.world.vein;
 
 import java.util.Random;
+import javax.annotation.Nullable;
 
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonObject;
@@ -44,4 +45,91 @@ public class SphereVeinType extends SingleVeinType<Vein<?>>
         }
         return 0.005f * density * (1.0f - radius);
     }
+
+    @Override
+    public VeinKernel compile()
+    {
+        return new SphereKernel(this);
+    }
+
+    /**
+     * Chances only depend on the offset from the vein, so the horizontal and vertical parts of the radius are looked up from tables, which are indexed by the squared horizontal distance and the vertical distance.
+     */
+    private static final class SphereKernel extends Kernel
+    {
+        private final float horizontalSizeSq, verticalSizeSq, chanceScale;
+        private final boolean uniform;
+        @Nullable private final float[] horizontalTable;
+        private final float[] verticalTable;
+
+        private SphereKernel(SphereVeinType type)
+        {
+            super(type);
+            this.horizontalSizeSq = type.horizontalSize * type.horizontalSize;
+            this.verticalSizeSq = type.verticalSize * type.verticalSize;
+            this.chanceScale = 0.005f * type.density;
+            this.uniform = type.uniform;
+
+            // Only offsets which are in range are used, which have a squared distance < horizontalSize^2
+            final int horizontalTableSize = type.horizontalSize * type.horizontalSize;
+            if (horizontalTableSize <= MAX_TABLE_SIZE)
+            {
+                horizontalTable = new float[horizontalTableSize];
+                for (int i = 0; i < horizontalTableSize; i++)
+                {
+                    // Squares of integers this small are exact as floats, so this is the same as adding dx^2 and dz^2 as floats
+                    horizontalTable[i] = i / horizontalSizeSq;
+                }
+            }
+            else
+            {
+                horizontalTable = null;
+            }
+
+            verticalTable = new float[MAX_VERTICAL_OFFSET + 1];
+            for (int i = 0; i <= MAX_VERTICAL_OFFSET; i++)
+            {
+                verticalTable[i] = (float) (i * i) / verticalSizeSq;
+            }
+        }
+
+        @Override
+        public float getChanceToGenerate(Vein<?> vein, int x, int y, int z)
+        {
+            final BlockPos center = vein.getPos();
+            return getChance(getHorizontal(center.getX() - x, center.getZ() - z), center.getY() - y);
+        }
+
+        @Override
+        public void getChances(Vein<?> vein, int originX, int originY, int originZ, int x, int z, int minY, int maxY, float[] out, int offset)
+        {
+            final float horizontal = getHorizontal(originX - x, originZ - z);
+            for (int y = minY; y <= maxY; y++)
+            {
+                out[offset++] = getChance(horizontal, originY - y);
+            }
+        }
+
+        private float getHorizontal(int dx, int dz)
+        {
+            final int distanceSq = dx * dx + dz * dz;
+            if (horizontalTable != null && distanceSq < horizontalTable.length)
+            {
+                return horizontalTable[distanceSq];
+            }
+            final float dxSq = dx * dx, dzSq = dz * dz;
+            return (dxSq + dzSq) / horizontalSizeSq;
+        }
+
+        private float getChance(float horizontal, int dy)
+        {
+            final int absDy = Math.abs(dy);
+            float radius = horizontal + (absDy < verticalTable.length ? verticalTable[absDy] : (float) (dy * dy) / verticalSizeSq);
+            if (uniform && radius < 1)
+            {
+                radius = 0;
+            }
+            return chanceScale * (1.0f - radius);
+        }
+    }
 }
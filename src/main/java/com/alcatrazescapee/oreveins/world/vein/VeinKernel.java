@@ -0,0 +1,90 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world.vein;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IBlockReader;
+
+/**
+ * Evaluates the veins of a single vein type when placing blocks.
+ * Each vein type is compiled into a kernel when it is loaded, see {@link VeinType#compile()}. Compiled kernels are final classes with constants from the vein type folded in, so the calls made for each block are monomorphic.
+ * They must give exactly the same results as the vein type's own methods, which are used by {@link Interpreted}
+ */
+public interface VeinKernel
+{
+    /**
+     * @see Vein#inRange(int, int)
+     */
+    boolean inRange(Vein<?> vein, int x, int z);
+
+    /**
+     * @see Vein#getChanceToGenerate(BlockPos)
+     */
+    float getChanceToGenerate(Vein<?> vein, int x, int y, int z);
+
+    /**
+     * Computes the chance to generate for a whole column, from minY to maxY inclusive, into {@code out} starting at {@code offset}.
+     * Kernels can override this to compute the horizontal part of the chance once per column. The results must be the same as {@link #getChanceToGenerate(Vein, int, int, int)}
+     *
+     * @param originX the x position of the vein, the same as {@code vein.getPos().getX()}, and likewise for y and z
+     */
+    default void getChances(Vein<?> vein, int originX, int originY, int originZ, int x, int z, int minY, int maxY, float[] out, int offset)
+    {
+        for (int y = minY; y <= maxY; y++)
+        {
+            out[offset++] = getChanceToGenerate(vein, x, y, z);
+        }
+    }
+
+    /**
+     * @param state the block state at pos, which the caller has already read, so kernels don't need to read it again
+     * @see VeinType#canGenerateAt(IBlockReader, BlockPos, BlockState)
+     */
+    boolean canGenerateAt(IBlockReader world, BlockPos pos, BlockState state);
+
+    /**
+     * @see VeinType#canReplace(BlockState)
+     */
+    boolean canReplace(BlockState state);
+
+    /**
+     * Evaluates veins through the vein and vein type methods
+     */
+    final class Interpreted implements VeinKernel
+    {
+        private final VeinType<?> type;
+
+        public Interpreted(VeinType<?> type)
+        {
+            this.type = type;
+        }
+
+        @Override
+        public boolean inRange(Vein<?> vein, int x, int z)
+        {
+            return vein.inRange(x, z);
+        }
+
+        @Override
+        public float getChanceToGenerate(Vein<?> vein, int x, int y, int z)
+        {
+            return vein.getChanceToGenerate(new BlockPos(x, y, z));
+        }
+
+        @Override
+        public boolean canGenerateAt(IBlockReader world, BlockPos pos, BlockState state)
+        {
+            return type.canGenerateAt(world, pos, state);
+        }
+
+        @Override
+        public boolean canReplace(BlockState state)
+        {
+            return type.canReplace(state);
+        }
+    }
+}
@@ -5,14 +5,29 @@
 
 package com.alcatrazescapee.oreveins.world.vein;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import javax.annotation.Nullable;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
@@ -27,13 +42,14 @@ import net.minecraft.resources.IResourceManager;
 import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.common.crafting.CraftingHelper;
 
-import com.alcatrazescapee.oreveins.command.ClearWorldCommand;
+import com.alcatrazescapee.oreveins.Config;
+import com.alcatrazescapee.oreveins.util.collections.BlockStateSet;
 import com.alcatrazescapee.oreveins.util.collections.IWeightedList;
 import com.alcatrazescapee.oreveins.util.json.BlockStateDeserializer;
 import com.alcatrazescapee.oreveins.util.json.BlockStatePredicateDeserializer;
 import com.alcatrazescapee.oreveins.util.json.VeinTypeDeserializer;
 import com.alcatrazescapee.oreveins.util.json.WeightedListDeserializer;
-import com.alcatrazescapee.oreveins.world.VeinsFeature;
+import com.alcatrazescapee.oreveins.world.VeinCache;
 import com.alcatrazescapee.oreveins.world.rule.DistanceRule;
 import com.alcatrazescapee.oreveins.world.rule.IBiomeRule;
 import com.alcatrazescapee.oreveins.world.rule.IDimensionRule;
@@ -44,6 +60,7 @@ public class VeinManager extends JsonReloadListener
     public static final VeinManager INSTANCE;
 
     private static final Logger LOGGER = LogManager.getLogger();
+    private static final HashFunction HASH = Hashing.murmur3_128();
     private static final Gson GSON = new GsonBuilder()
         // Collections
         .registerTypeAdapter(new TypeToken<IWeightedList<BlockState>>() {}.getType(), new WeightedListDeserializer<>(BlockState.class))
@@ -65,64 +82,222 @@ public class VeinManager extends JsonReloadListener
         INSTANCE = new VeinManager();
     }
 
-    private final BiMap<ResourceLocation, VeinType<?>> veins;
+    private final AtomicInteger version;
+    private final Map<ResourceLocation, LoadedVein> loaded; // Only accessed during reload
+    @Nullable private List<Object> loadedSettings; // The settings the loaded veins were rolled with, only accessed during reload
+    private volatile VeinSnapshot snapshot;
 
     private VeinManager()
     {
         super(GSON, "oreveins");
-        this.veins = HashBiMap.create();
+        this.version = new AtomicInteger();
+        this.loaded = new HashMap<>();
+        this.snapshot = VeinSnapshot.EMPTY;
+    }
+
+    /**
+     * Gets the current set of veins. Anything which needs to see the same veins across multiple calls, such as world generation, should get the snapshot once and use it throughout.
+     */
+    public VeinSnapshot getSnapshot()
+    {
+        return snapshot;
     }
 
     public Collection<VeinType<?>> getVeins()
     {
-        return veins.values();
+        return snapshot.getVeins();
+    }
+
+    public Set<Map.Entry<ResourceLocation, VeinType<?>>> getEntries()
+    {
+        return snapshot.getEntries();
     }
 
     public Set<ResourceLocation> getKeys()
     {
-        return veins.keySet();
+        return snapshot.getKeys();
+    }
+
+    /**
+     * @return the set of all states generated by any vein. This is rebuilt on reload, so callers should not hold on to it
+     */
+    public BlockStateSet getOreStates()
+    {
+        return snapshot.getOreStates();
+    }
+
+    public boolean isVeinOre(BlockState state)
+    {
+        return snapshot.getOreStates().contains(state);
     }
 
     @Nullable
     public VeinType<?> getVein(ResourceLocation key)
     {
-        return veins.get(key);
+        return snapshot.getVein(key);
     }
 
     public ResourceLocation getName(VeinType<?> key)
     {
-        return veins.inverse().get(key);
+        return snapshot.getName(key);
     }
 
     @Override
     protected void apply(Map<ResourceLocation, JsonObject> resources, IResourceManager manager, IProfiler profiler)
     {
-        for (Map.Entry<ResourceLocation, JsonObject> entry : resources.entrySet())
+        // Parse every file in parallel, then register them in order of their names, so the result doesn't depend on which file finishes first
+        final long start = System.nanoTime();
+        final Map<ResourceLocation, CompletableFuture<ParseResult>> results = new TreeMap<>();
+        final Map<ResourceLocation, HashCode> hashes = new HashMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(resources.size(), Runtime.getRuntime().availableProcessors())), new ThreadFactoryBuilder().setNameFormat("OreVeins-Loader-%d").setDaemon(true).build());
+        try
         {
-            ResourceLocation name = entry.getKey();
-            JsonObject json = entry.getValue();
-            try
+            // Veins are cached by vein type, so reused types would keep veins rolled with the previous settings
+            final List<Object> settings = getRollingSettings();
+            if (!settings.equals(loadedSettings))
             {
-                if (CraftingHelper.processConditions(json, "conditions"))
+                if (!loaded.isEmpty())
                 {
-                    veins.put(name, GSON.fromJson(json, VeinType.class));
+                    LOGGER.info("Vein rolling settings have changed, all veins will be reloaded");
+                }
+                loaded.clear();
+                loadedSettings = settings;
+            }
+
+            int unchanged = 0;
+            for (Map.Entry<ResourceLocation, JsonObject> entry : resources.entrySet())
+            {
+                final ResourceLocation name = entry.getKey();
+                final JsonObject json = entry.getValue();
+                final HashCode hash = HASH.hashString(json.toString(), StandardCharsets.UTF_8);
+                final LoadedVein previous = loaded.get(name);
+                hashes.put(name, hash);
+
+                // Files with conditions are always parsed again, as the result of the conditions can change between reloads
+                if (previous != null && previous.hash.equals(hash) && !json.has("conditions"))
+                {
+                    results.put(name, CompletableFuture.completedFuture(new ParseResult(previous.type, null, 0)));
+                    unchanged++;
                 }
                 else
+                {
+                    results.put(name, CompletableFuture.supplyAsync(() -> parse(json), executor));
+                }
+            }
+
+            // Build the new veins off to the side, so generation can continue with the previous snapshot until it is swapped
+            final Map<ResourceLocation, VeinType<?>> veins = new TreeMap<>();
+            final List<ResourceLocation> failed = new ArrayList<>();
+            for (Map.Entry<ResourceLocation, CompletableFuture<ParseResult>> entry : results.entrySet())
+            {
+                final ResourceLocation name = entry.getKey();
+                final ParseResult result = entry.getValue().join();
+                if (result.error != null)
+                {
+                    LOGGER.warn("Vein '{}' failed to parse. This is most likely caused by incorrectly specified JSON.", name);
+                    LOGGER.warn("Error: ", result.error);
+                    failed.add(name);
+                }
+                else if (result.type == null)
                 {
                     LOGGER.info("Skipping loading vein '{}' as it's conditions were not met", name);
                 }
+                else
+                {
+                    veins.put(name, result.type);
+                }
+                LOGGER.debug("Parsed vein '{}' in {} ms", name, String.format("%.2f", result.time / 1_000_000d));
             }
-            catch (IllegalArgumentException | JsonParseException e)
+
+            // Only successfully parsed veins are kept, so any which failed are parsed again next time
+            loaded.clear();
+            veins.forEach((name, type) -> loaded.put(name, new LoadedVein(hashes.get(name), type)));
+
+            final boolean legacyRolling = Config.COMMON.legacyVeinRolling.get();
+            snapshot = new VeinSnapshot(version.incrementAndGet(), legacyRolling ? getLegacyOrder(resources, veins) : ImmutableBiMap.copyOf(veins), 1 + Config.COMMON.extraChunkRange.get(), Config.COMMON.compileVeins.get(), legacyRolling, snapshot);
+            LOGGER.info("Registered {} Veins Successfully in {} ms. {} were unchanged and not reloaded.", veins.size(), (System.nanoTime() - start) / 1_000_000, unchanged);
+            if (!failed.isEmpty())
             {
-                LOGGER.warn("Vein '{}' failed to parse. This is most likely caused by incorrectly specified JSON.", entry.getKey());
-                LOGGER.warn("Error: ", e);
+                LOGGER.warn("{} Veins failed to load: {}", failed.size(), failed);
             }
         }
-
-        LOGGER.info("Registered {} Veins Successfully.", veins.size());
+        finally
+        {
+            executor.shutdown();
+        }
 
         // After Veins have Reloaded
-        ClearWorldCommand.resetVeinStates();
-        VeinsFeature.resetChunkRadius();
+        VeinCache.INSTANCE.reset();
+    }
+
+    /**
+     * @return the config values which change how veins are rolled. Vein types are only reused if these are unchanged
+     */
+    private List<Object> getRollingSettings()
+    {
+        return Arrays.asList(Config.COMMON.avoidVeinCutoffs.get(), Config.COMMON.extraChunkRange.get());
+    }
+
+    /**
+     * Orders the vein types as older versions did, which registered them into a hash bi map in the iteration order of the resources
+     */
+    private ImmutableBiMap<ResourceLocation, VeinType<?>> getLegacyOrder(Map<ResourceLocation, JsonObject> resources, Map<ResourceLocation, VeinType<?>> veins)
+    {
+        final BiMap<ResourceLocation, VeinType<?>> legacy = HashBiMap.create();
+        for (ResourceLocation name : resources.keySet())
+        {
+            final VeinType<?> type = veins.get(name);
+            if (type != null)
+            {
+                legacy.put(name, type);
+            }
+        }
+        return ImmutableBiMap.copyOf(legacy);
+    }
+
+    private ParseResult parse(JsonObject json)
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            final VeinType<?> type = CraftingHelper.processConditions(json, "conditions") ? GSON.fromJson(json, VeinType.class) : null;
+            return new ParseResult(type, null, System.nanoTime() - start);
+        }
+        catch (IllegalArgumentException | JsonParseException e)
+        {
+            return new ParseResult(null, e, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * A vein which was loaded by a previous reload, and the hash of the file it was parsed from
+     */
+    private static final class LoadedVein
+    {
+        private final HashCode hash;
+        private final VeinType<?> type;
+
+        private LoadedVein(HashCode hash, VeinType<?> type)
+        {
+            this.hash = hash;
+            this.type = type;
+        }
+    }
+
+    /**
+     * The outcome of parsing a single vein file. A null type with no error means the conditions were not met
+     */
+    private static final class ParseResult
+    {
+        @Nullable private final VeinType<?> type;
+        @Nullable private final RuntimeException error;
+        private final long time;
+
+        private ParseResult(@Nullable VeinType<?> type, @Nullable RuntimeException error, long time)
+        {
+            this.type = type;
+            this.error = error;
+            this.time = time;
+        }
     }
 }
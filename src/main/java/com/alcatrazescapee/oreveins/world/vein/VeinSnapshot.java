@@ -0,0 +1,163 @@
+/*
+ * Part of the Realistic Ore Veins Mod by AlcatrazEscapee
+ * Work under Copyright. See the project LICENSE.md for details.
+ */
+
+package com.alcatrazescapee.oreveins.world.vein;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableList;
+import net.minecraft.util.ResourceLocation;
+
+import com.alcatrazescapee.oreveins.util.collections.BlockStateSet;
+
+/**
+ * An immutable view of all loaded vein types, and the state derived from them.
+ * A new snapshot is built on each reload, and published with a single write, so world gen threads always see a consistent set of veins without locking.
+ * Types are given dense integer ids, in the order their veins are rolled, which are only valid for this snapshot.
+ */
+public final class VeinSnapshot
+{
+    static final VeinSnapshot EMPTY = new VeinSnapshot(0, ImmutableBiMap.of(), 1, false, false, null);
+
+    private final int version;
+    private final ImmutableBiMap<ResourceLocation, VeinType<?>> veins;
+    private final ImmutableList<VeinType<?>> types;
+    private final Map<VeinType<?>, Integer> ids;
+    private final Map<VeinType<?>, VeinKernel> kernels;
+    private final BlockStateSet oreStates;
+    private final int chunkRadius;
+    private final boolean compiled;
+    private final boolean legacyRolling;
+
+    /**
+     * @param veins         the vein types, which must be iterated in the order their veins are rolled: by name, or in the legacy order if legacy rolling
+     * @param extraRadius   extra chunk radius to add to the largest vein radius
+     * @param compile       if vein types should be compiled to specialized kernels, or use the interpreted kernel
+     * @param legacyRolling if all vein types in a chunk are rolled from one shared random
+     * @param previous      the snapshot this replaces, if any. Kernels of vein types which are in both snapshots are reused, rather than compiled again
+     */
+    VeinSnapshot(int version, ImmutableBiMap<ResourceLocation, VeinType<?>> veins, int extraRadius, boolean compile, boolean legacyRolling, @Nullable VeinSnapshot previous)
+    {
+        this.version = version;
+        this.compiled = compile;
+        this.legacyRolling = legacyRolling;
+        this.veins = veins;
+        this.types = veins.values().asList();
+        this.ids = new IdentityHashMap<>();
+        for (int i = 0; i < types.size(); i++)
+        {
+            ids.put(types.get(i), i);
+        }
+        this.kernels = new IdentityHashMap<>();
+        final Map<VeinType<?>, VeinKernel> previousKernels = previous != null && previous.compiled == compile ? previous.kernels : Collections.emptyMap();
+        types.forEach(type -> addKernel(type, compile, previousKernels));
+        this.oreStates = BlockStateSet.of(types.stream().map(VeinType::getOreStates).flatMap(Collection::stream).collect(Collectors.toList()));
+        this.chunkRadius = extraRadius + types.stream().mapToInt(VeinType::getChunkRadius).max().orElse(0);
+    }
+
+    /**
+     * @return the kernel used to place veins of a type, including the child types of multiple veins
+     */
+    public VeinKernel getKernel(VeinType<?> type)
+    {
+        final VeinKernel kernel = kernels.get(type);
+        return kernel != null ? kernel : new VeinKernel.Interpreted(type);
+    }
+
+    /**
+     * @return if all vein types in a chunk are rolled from one shared random, in the order of their ids, so no type can be rolled on its own. See {@link com.alcatrazescapee.oreveins.Config.CommonConfig#legacyVeinRolling}
+     */
+    public boolean isLegacyRolling()
+    {
+        return legacyRolling;
+    }
+
+    /**
+     * @return a number which is different for every snapshot, used to detect that derived data is stale
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public List<VeinType<?>> getVeins()
+    {
+        return types;
+    }
+
+    public Set<Map.Entry<ResourceLocation, VeinType<?>>> getEntries()
+    {
+        return veins.entrySet();
+    }
+
+    public Set<ResourceLocation> getKeys()
+    {
+        return veins.keySet();
+    }
+
+    @Nullable
+    public VeinType<?> getVein(ResourceLocation key)
+    {
+        return veins.get(key);
+    }
+
+    @Nullable
+    public ResourceLocation getName(VeinType<?> type)
+    {
+        return veins.inverse().get(type);
+    }
+
+    /**
+     * @return the id of a vein type, or -1 if the type is not part of this snapshot
+     */
+    public int getId(VeinType<?> type)
+    {
+        return ids.getOrDefault(type, -1);
+    }
+
+    public VeinType<?> getVein(int id)
+    {
+        return types.get(id);
+    }
+
+    public int size()
+    {
+        return types.size();
+    }
+
+    /**
+     * @return the set of all states generated by any vein
+     */
+    public BlockStateSet getOreStates()
+    {
+        return oreStates;
+    }
+
+    /**
+     * @return the radius, in chunks, around a chunk in which veins need to be checked when generating that chunk
+     */
+    public int getChunkRadius()
+    {
+        return chunkRadius;
+    }
+
+    /**
+     * Vein types are immutable, and unchanged types are kept as the same instance across reloads, so a kernel built for the same instance is still valid
+     */
+    private void addKernel(VeinType<?> type, boolean compile, Map<VeinType<?>, VeinKernel> previousKernels)
+    {
+        final VeinKernel previous = previousKernels.get(type);
+        kernels.put(type, previous != null ? previous : (compile ? type.compile() : new VeinKernel.Interpreted(type)));
+        type.getChildTypes().forEach(child -> addKernel(child, compile, previousKernels));
+    }
+}
@@ -17,6 +17,7 @@ import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import net.minecraft.block.BlockState;
 import net.minecraft.util.JSONUtils;
 import net.minecraft.util.math.BlockPos;
@@ -125,6 +126,16 @@ public abstract class VeinType<V extends Vein<?>>
      * @return if the vein can generate
      */
     public boolean canGenerateAt(IBlockReader world, BlockPos pos)
+    {
+        return canGenerateAt(world, pos, world.getBlockState(pos));
+    }
+
+    /**
+     * If the vein can generate on the previous state, when that state has already been read from the world
+     *
+     * @param state The state at pos
+     */
+    public boolean canGenerateAt(IBlockReader world, BlockPos pos, BlockState state)
     {
         if (rules != null)
         {
@@ -206,6 +217,30 @@ public abstract class VeinType<V extends Vein<?>>
         return maxY;
     }
 
+    /**
+     * Gets the horizontal radius of this vein, in blocks
+     */
+    public int getHorizontalSize()
+    {
+        return horizontalSize;
+    }
+
+    /**
+     * Gets the vertical radius of this vein, in blocks
+     */
+    public int getVerticalSize()
+    {
+        return verticalSize;
+    }
+
+    /**
+     * Gets the density of this vein, which scales the chance to generate at each block
+     */
+    public float getDensity()
+    {
+        return density;
+    }
+
     /**
      * Gets the number of rolls for a chunk
      *
@@ -242,6 +277,55 @@ public abstract class VeinType<V extends Vein<?>>
         return String.format("[%s: Count: %d, Rarity: %d, Y: %d - %d, Size: %d / %d, Density: %2.2f", VeinManager.INSTANCE.getName(this), count, rarity, minY, maxY, horizontalSize, verticalSize, density);
     }
 
+    /**
+     * Compiles this vein type into a kernel for placing blocks. Types without a specialized kernel use {@link VeinKernel.Interpreted}
+     */
+    public VeinKernel compile()
+    {
+        return new VeinKernel.Interpreted(this);
+    }
+
+    /**
+     * Gets any vein types which this type creates veins of, other than itself
+     */
+    public Collection<VeinType<?>> getChildTypes()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Checks if this vein could replace a block state, without checking any rules.
+     * If this returns false, {@link #canGenerateAt(IBlockReader, BlockPos)} must also return false for any position with that state
+     */
+    public boolean canReplace(BlockState state)
+    {
+        return true;
+    }
+
+    /**
+     * Gets the rules which are checked by {@link #canGenerateAt(IBlockReader, BlockPos)}
+     */
+    protected IRule[] getRules()
+    {
+        return rules != null ? rules.toArray(new IRule[0]) : new IRule[0];
+    }
+
+    /**
+     * Writes any state of a vein other than its type and position, so it can be stored in a {@link PackedVeins}
+     */
+    public void writeParameters(V vein, DoubleArrayList out) {}
+
+    /**
+     * Creates a view of a vein stored in a {@link PackedVeins}
+     *
+     * @param parameters the parameters written by {@link #writeParameters(Vein, DoubleArrayList)}, starting at offset
+     */
+    @SuppressWarnings("unchecked")
+    public V createView(BlockPos pos, double[] parameters, int offset)
+    {
+        return (V) new Vein<>(this, pos);
+    }
+
     /**
      * Gets the chance to generate at a specific location
      *
@@ -0,0 +1,190 @@
+package com.alcatrazescapee.oreveins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.SharedSeedRandom;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeContainer;
+import net.minecraft.world.biome.Biomes;
+import net.minecraft.world.chunk.ChunkPrimer;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.chunk.IChunk;
+import net.minecraft.world.chunk.UpgradeData;
+import net.minecraft.world.gen.GenerationStage;
+import net.minecraft.world.gen.WorldGenRegion;
+import net.minecraft.world.gen.feature.ConfiguredFeature;
+import net.minecraft.world.server.ServerWorld;
+
+/**
+ * A 3x3 chunk world gen region which is independent of the terrain generator, for running features in tests.
+ * Every chunk is bedrock at y = 0, stone up to {@link #SURFACE}, and air above, in a single biome.
+ * The world seed is fixed, rather than taken from the test world.
+ */
+class SyntheticWorld extends WorldGenRegion
+{
+    static final int SURFACE = 63;
+
+    static SyntheticWorld create(ServerWorld world, int chunkX, int chunkZ, long seed)
+    {
+        return create(world, chunkX, chunkZ, seed, Biomes.PLAINS);
+    }
+
+    static SyntheticWorld create(ServerWorld world, int chunkX, int chunkZ, long seed, Biome biome)
+    {
+        // Ordered with z as the outer index, as expected by WorldGenRegion
+        final List<IChunk> chunks = new ArrayList<>(9);
+        for (int z = chunkZ - 1; z <= chunkZ + 1; z++)
+        {
+            for (int x = chunkX - 1; x <= chunkX + 1; x++)
+            {
+                chunks.add(createChunk(x, z, biome));
+            }
+        }
+        return new SyntheticWorld(world, chunks, seed);
+    }
+
+    /**
+     * @return the state every block at this height starts as
+     */
+    static BlockState getInitialState(int y)
+    {
+        if (y == 0)
+        {
+            return Blocks.BEDROCK.getDefaultState();
+        }
+        return y <= SURFACE ? Blocks.STONE.getDefaultState() : Blocks.AIR.getDefaultState();
+    }
+
+    private static ChunkPrimer createChunk(int chunkX, int chunkZ, Biome biome)
+    {
+        final ChunkPrimer chunk = new ChunkPrimer(new ChunkPos(chunkX, chunkZ), UpgradeData.EMPTY);
+        final Biome[] biomes = new Biome[BiomeContainer.BIOMES_SIZE];
+        Arrays.fill(biomes, biome);
+        chunk.setBiomes(new BiomeContainer(biomes));
+        chunk.setStatus(ChunkStatus.FEATURES);
+
+        final BlockPos.Mutable pos = new BlockPos.Mutable();
+        for (int y = 0; y <= SURFACE; y++)
+        {
+            final BlockState state = getInitialState(y);
+            for (int x = 0; x < 16; x++)
+            {
+                for (int z = 0; z < 16; z++)
+                {
+                    chunk.setBlockState(pos.setPos(chunkX * 16 + x, y, chunkZ * 16 + z), state, false);
+                }
+            }
+        }
+        return chunk;
+    }
+
+    private final ServerWorld world;
+    private final List<IChunk> chunks;
+    private final long seed;
+    private final int chunkX, chunkZ;
+
+    private SyntheticWorld(ServerWorld world, List<IChunk> chunks, long seed)
+    {
+        super(world, chunks);
+        this.world = world;
+        this.chunks = chunks;
+        this.seed = seed;
+        this.chunkX = getMainChunkX();
+        this.chunkZ = getMainChunkZ();
+    }
+
+    @Override
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * Places a feature in the center chunk, with the same random as it would be given when decorating a biome
+     *
+     * @param index the index of the feature in the biome's list for that stage
+     */
+    boolean place(ConfiguredFeature<?, ?> feature, GenerationStage.Decoration stage, int index)
+    {
+        return feature.place(this, world.getChunkProvider().getChunkGenerator(), getDecorationRandom(stage, index), getMainChunkPos());
+    }
+
+    /**
+     * @return the random a feature in the center chunk is given when decorating a biome
+     */
+    Random getDecorationRandom(GenerationStage.Decoration stage, int index)
+    {
+        final SharedSeedRandom random = new SharedSeedRandom();
+        final long decorationSeed = random.setDecorationSeed(seed, chunkX * 16, chunkZ * 16);
+        random.setFeatureSeed(decorationSeed, index, stage.ordinal());
+        return random;
+    }
+
+    /**
+     * @return the minimum corner of the center chunk, where features are placed
+     */
+    BlockPos getMainChunkPos()
+    {
+        return new BlockPos(chunkX * 16, 0, chunkZ * 16);
+    }
+
+    /**
+     * Visits every block in the region which is no longer in its initial state, in a fixed order
+     */
+    void forEachChange(BlockVisitor visitor)
+    {
+        for (IChunk chunk : chunks)
+        {
+            forEachChange(chunk, visitor);
+        }
+    }
+
+    /**
+     * Visits every block in the center chunk which is no longer in its initial state, in a fixed order
+     */
+    void forEachChangeInMainChunk(BlockVisitor visitor)
+    {
+        forEachChange(getChunk(chunkX, chunkZ), visitor);
+    }
+
+    int countChanges()
+    {
+        final int[] count = {0};
+        forEachChange((pos, state) -> count[0]++);
+        return count[0];
+    }
+
+    private void forEachChange(IChunk chunk, BlockVisitor visitor)
+    {
+        final BlockPos.Mutable pos = new BlockPos.Mutable();
+        final ChunkPos chunkPos = chunk.getPos();
+        for (int y = 0; y < 256; y++)
+        {
+            final BlockState initialState = getInitialState(y);
+            for (int x = chunkPos.getXStart(); x <= chunkPos.getXEnd(); x++)
+            {
+                for (int z = chunkPos.getZStart(); z <= chunkPos.getZEnd(); z++)
+                {
+                    final BlockState state = chunk.getBlockState(pos.setPos(x, y, z));
+                    if (state != initialState)
+                    {
+                        visitor.visit(pos, state);
+                    }
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface BlockVisitor
+    {
+        void visit(BlockPos pos, BlockState state);
+    }
+}
@@ -0,0 +1,301 @@
+package com.alcatrazescapee.oreveins;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.biome.Biomes;
+import net.minecraft.world.dimension.DimensionType;
+import net.minecraft.world.gen.GenerationStage;
+import net.minecraft.world.gen.feature.ConfiguredFeature;
+import net.minecraft.world.gen.feature.DecoratedFeatureConfig;
+
+import com.alcatrazescapee.oreveins.world.FilteredOreFeature;
+import com.alcatrazescapee.oreveins.world.ModFeatures;
+import com.alcatrazescapee.oreveins.world.VeinsFeature;
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinManager;
+import com.alcatrazescapee.oreveins.world.vein.VeinSnapshot;
+import com.alcatrazescapee.oreveins.world.vein.VeinType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static com.alcatrazescapee.oreveins.MinecraftReferences.world;
+import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class TestGeneration
+{
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final long SEED = 1234567890L;
+
+    private static final long[] GOLDEN_SEEDS = {1234567890L, -4962768465676381896L};
+    private static final int GOLDEN_GRID_SIZE = 4;
+    private static final String GOLDEN_RESOURCE = "/oreveins_golden_placements.txt";
+
+    /**
+     * Places each test vein type on its own, over a grid of chunks at fixed seeds, and compares a hash of the blocks placed in each chunk with the committed golden hashes.
+     * This guards optimizations of vein generation against changing already generated worlds, so veins are always rolled as legacy rolling does, regardless of the config. This means the hashes of each type also depend on the vein types before it in the snapshot.
+     * A missing, unreadable or empty golden file is a failure, as is a chunk without a golden hash.
+     * When run with -Doreveins.golden.record=true, the hashes are written to a file instead, which should be copied to src/test/resources after checking the changes are intended.
+     */
+    @Test
+    void testGoldenPlacements() throws IOException
+    {
+        assertNotNull(world);
+        assumeFalse(Config.COMMON.skipSampling.get(), "Golden placements are recorded without skip sampling");
+
+        final boolean record = Boolean.getBoolean("oreveins.golden.record");
+        final Map<String, String> golden = record ? null : loadGoldenHashes();
+        final Map<String, String> hashes = new LinkedHashMap<>();
+
+        final VeinSnapshot snapshot = VeinManager.INSTANCE.getSnapshot();
+        final List<ResourceLocation> names = snapshot.getKeys().stream()
+            .filter(name -> name.getNamespace().equals(MOD_ID) && name.getPath().startsWith("tests/"))
+            .sorted(Comparator.comparing(ResourceLocation::toString))
+            .collect(Collectors.toList());
+        for (ResourceLocation name : names)
+        {
+            final VeinType<?> type = snapshot.getVein(name);
+            for (long seed : GOLDEN_SEEDS)
+            {
+                for (int chunkX = 0; chunkX < GOLDEN_GRID_SIZE; chunkX++)
+                {
+                    for (int chunkZ = 0; chunkZ < GOLDEN_GRID_SIZE; chunkZ++)
+                    {
+                        final List<Vein<?>> veins = getNearbyVeins(snapshot, type, chunkX, chunkZ, seed);
+                        final SyntheticWorld region = SyntheticWorld.create(world, chunkX, chunkZ, seed);
+                        ModFeatures.VEINS.get().place(region, region.getDecorationRandom(GenerationStage.Decoration.UNDERGROUND_ORES, 0), region.getMainChunkPos(), snapshot, veins);
+
+                        final String key = name + " " + seed + " " + chunkX + " " + chunkZ;
+                        final String hash = hashPlacements(region);
+                        hashes.put(key, hash);
+                        if (golden != null && !golden.containsKey(key))
+                        {
+                            fail("No golden hash for " + key + ". Record golden hashes with -Doreveins.golden.record=true");
+                        }
+                        if (golden != null && !hash.equals(golden.get(key)))
+                        {
+                            final String veinsInRange = veins.stream().map(vein -> vein.getPos().toString()).collect(Collectors.joining(", "));
+                            fail("Placements of " + name + " with seed " + seed + " differ first in chunk [" + chunkX + ", " + chunkZ + "]: expected " + golden.get(key) + " but was " + hash + ". Veins in range: [" + veinsInRange + "]. If this change is intended, record new golden hashes with -Doreveins.golden.record=true");
+                        }
+                    }
+                }
+            }
+        }
+
+        if (golden == null)
+        {
+            final Path output = Paths.get(System.getProperty("oreveins.golden.output", "oreveins_golden_placements.txt")).toAbsolutePath();
+            Files.write(output, hashes.entrySet().stream().map(entry -> entry.getKey() + " " + entry.getValue()).collect(Collectors.toList()), StandardCharsets.UTF_8);
+            LOGGER.info("Recorded {} golden placement hashes to {}", hashes.size(), output);
+            assumeTrue(false, "Golden placement hashes were recorded to " + output + ", not compared. Copy them to src/test/resources" + GOLDEN_RESOURCE);
+        }
+    }
+
+    /**
+     * Places two veins at the same position, where the second can only replace the ore of the first.
+     * The chunk starts without any of the first ore, so this checks that sections are not skipped based on the chunk as it was before any veins were placed.
+     */
+    @Test
+    void testOverlappingVeins()
+    {
+        assertNotNull(world);
+
+        final VeinSnapshot snapshot = VeinManager.INSTANCE.getSnapshot();
+        final VeinType<?> first = snapshot.getVein(new ResourceLocation(MOD_ID, "tests/test_overlap_first"));
+        final VeinType<?> second = snapshot.getVein(new ResourceLocation(MOD_ID, "tests/test_overlap_second"));
+        assertNotNull(first);
+        assertNotNull(second);
+
+        final SyntheticWorld region = SyntheticWorld.create(world, 0, 0, SEED);
+        final BlockPos center = region.getMainChunkPos().add(8, 40, 8);
+        final List<Vein<?>> veins = Arrays.asList(new Vein<>(first, center), new Vein<>(second, center));
+        ModFeatures.VEINS.get().place(region, region.getDecorationRandom(GenerationStage.Decoration.UNDERGROUND_ORES, 0), region.getMainChunkPos(), snapshot, veins);
+
+        // Both veins have a chance of one everywhere inside them, so every block of the first ore is replaced by the second
+        final Map<BlockState, Integer> counts = new HashMap<>();
+        region.forEachChangeInMainChunk((pos, state) -> counts.merge(state, 1, Integer::sum));
+        assertFalse(counts.containsKey(Blocks.RED_WOOL.getDefaultState()), "The second vein did not replace the first: " + counts);
+        assertTrue(counts.containsKey(Blocks.BLUE_WOOL.getDefaultState()), "The second vein was not placed: " + counts);
+    }
+
+    /**
+     * Benchmarks the underground ores stage of plains with vanilla ores only, veins only, and both, over the same chunks.
+     * Vanilla ores are always placed, regardless of the config, by unwrapping the features which {@link com.alcatrazescapee.oreveins.world.VanillaFeatureManager} filters.
+     * Run with -Doreveins.benchmark=true
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "oreveins.benchmark", matches = "true")
+    void benchmarkOreGeneration()
+    {
+        assertNotNull(world);
+
+        final List<ConfiguredFeature<?, ?>> features = getUndergroundOres();
+        benchmark("vanilla", features, feature -> !isVeins(feature));
+        benchmark("veins", features, TestGeneration::isVeins);
+        benchmark("both", features, feature -> true);
+    }
+
+    private void benchmark(String name, List<ConfiguredFeature<?, ?>> features, Predicate<ConfiguredFeature<?, ?>> filter)
+    {
+        final int radius = 8, warmupRadius = 2;
+        run(features, filter, 1000, warmupRadius); // Warm up, away from the measured chunks
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long startBytes = threads.getThreadAllocatedBytes(threadId);
+
+        final Result result = run(features, filter, 0, radius);
+
+        final long bytes = threads.getThreadAllocatedBytes(threadId) - startBytes - result.setupBytes;
+        final int chunks = (2 * radius + 1) * (2 * radius + 1);
+        LOGGER.info("Ore generation ({}): {} us/chunk, {} KB/chunk allocated, {} blocks/chunk written", name, result.nanos / chunks / 1000, bytes / chunks / 1024, String.format("%.1f", (double) result.blocks / chunks));
+    }
+
+    /**
+     * Places the features in a square of chunks. Only the time spent placing, and the allocations made while placing, are measured
+     */
+    private Result run(List<ConfiguredFeature<?, ?>> features, Predicate<ConfiguredFeature<?, ?>> filter, int center, int radius)
+    {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final Result result = new Result();
+        for (int x = center - radius; x <= center + radius; x++)
+        {
+            for (int z = center - radius; z <= center + radius; z++)
+            {
+                final long setupStart = threads.getThreadAllocatedBytes(threadId);
+                final SyntheticWorld region = SyntheticWorld.create(world, x, z, SEED);
+                result.setupBytes += threads.getThreadAllocatedBytes(threadId) - setupStart;
+
+                final long start = System.nanoTime();
+                for (int i = 0; i < features.size(); i++)
+                {
+                    if (filter.test(features.get(i)))
+                    {
+                        region.place(features.get(i), GenerationStage.Decoration.UNDERGROUND_ORES, i);
+                    }
+                }
+                result.nanos += System.nanoTime() - start;
+
+                final long countStart = threads.getThreadAllocatedBytes(threadId);
+                result.blocks += region.countChanges();
+                result.setupBytes += threads.getThreadAllocatedBytes(threadId) - countStart;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the underground ores of plains, with any filtered vanilla ores unwrapped
+     */
+    private List<ConfiguredFeature<?, ?>> getUndergroundOres()
+    {
+        final List<ConfiguredFeature<?, ?>> features = new ArrayList<>();
+        for (ConfiguredFeature<?, ?> feature : Biomes.PLAINS.getFeatures(GenerationStage.Decoration.UNDERGROUND_ORES))
+        {
+            if (feature.config instanceof FilteredOreFeature.FilteredConfig)
+            {
+                features.add(((FilteredOreFeature.FilteredConfig) feature.config).original);
+            }
+            else
+            {
+                features.add(feature);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * @return the veins of a single type which can generate in a chunk in the overworld, rolled from the random shared by all vein types as in {@link VeinsFeature#getLegacyVeinsByType(VeinSnapshot, int, int, long)}
+     */
+    private List<Vein<?>> getNearbyVeins(VeinSnapshot snapshot, VeinType<?> type, int chunkX, int chunkZ, long seed)
+    {
+        final List<Vein<?>> veins = new ArrayList<>();
+        if (type.matchesDimension(DimensionType.OVERWORLD))
+        {
+            final int id = snapshot.getId(type), radius = snapshot.getChunkRadius();
+            for (int x = chunkX - radius; x <= chunkX + radius; x++)
+            {
+                for (int z = chunkZ - radius; z <= chunkZ + radius; z++)
+                {
+                    veins.addAll(VeinsFeature.getLegacyVeinsByType(snapshot, x, z, seed).get(id));
+                }
+            }
+        }
+        return veins;
+    }
+
+    /**
+     * Hashes the position and state of every block placed in the center chunk. States are hashed by name, so the hash doesn't depend on state ids
+     */
+    private String hashPlacements(SyntheticWorld region)
+    {
+        final long[] hash = {17};
+        region.forEachChangeInMainChunk((pos, state) -> {
+            hash[0] = 31 * hash[0] + pos.toLong();
+            hash[0] = 31 * hash[0] + state.toString().hashCode();
+        });
+        return String.format("%016x", hash[0]);
+    }
+
+    /**
+     * @return the committed golden hashes. Fails if they are missing or can't be read
+     */
+    private Map<String, String> loadGoldenHashes()
+    {
+        final InputStream stream = TestGeneration.class.getResourceAsStream(GOLDEN_RESOURCE);
+        assertNotNull(stream, "Missing golden placement hashes at src/test/resources" + GOLDEN_RESOURCE + ". Record them with -Doreveins.golden.record=true");
+        final Map<String, String> hashes = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                final int split = line.lastIndexOf(' ');
+                if (split > 0)
+                {
+                    hashes.put(line.substring(0, split), line.substring(split + 1));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            fail("Unable to read golden placement hashes from " + GOLDEN_RESOURCE, e);
+        }
+        assertFalse(hashes.isEmpty(), "No golden placement hashes in " + GOLDEN_RESOURCE);
+        return hashes;
+    }
+
+    private static boolean isVeins(ConfiguredFeature<?, ?> feature)
+    {
+        return feature.config instanceof DecoratedFeatureConfig && ((DecoratedFeatureConfig) feature.config).feature.feature == ModFeatures.VEINS.get();
+    }
+
+    private static final class Result
+    {
+        long nanos, setupBytes;
+        int blocks;
+    }
+}
@@ -0,0 +1,64 @@
+package com.alcatrazescapee.oreveins;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import net.minecraft.util.ResourceLocation;
+
+import com.alcatrazescapee.oreveins.world.vein.PackedVeins;
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinManager;
+import com.alcatrazescapee.oreveins.world.vein.VeinType;
+import org.junit.jupiter.api.Test;
+
+import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
+import static com.alcatrazescapee.oreveins.VeinFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Packed veins, and packed veins which have been written to a buffer and read back, must be the same as the veins they were created from
+ */
+class TestPackedVeins
+{
+    private static final int CHUNKS = 3;
+
+    @Test
+    void testPackedVeinsMatchHeapVeins()
+    {
+        forEachTestType((type, veins) -> assertSameVeins(veins, PackedVeins.of(veins)));
+    }
+
+    @Test
+    void testPackedVeinsRoundTrip()
+    {
+        forEachTestType((type, veins) -> {
+            PackedVeins packed = PackedVeins.of(veins);
+            ByteBuffer buffer = ByteBuffer.allocate(packed.getSerializedSize());
+            packed.write(buffer, type);
+            assertEquals(buffer.capacity(), buffer.position(), "Serialized size");
+
+            buffer.flip();
+            assertSameVeins(veins, PackedVeins.read(buffer, type));
+            assertFalse(buffer.hasRemaining());
+        });
+    }
+
+    /**
+     * Rolls veins for each test vein type at a few seeds, over a small grid of chunks
+     */
+    private void forEachTestType(BiConsumer<VeinType<?>, List<Vein<?>>> action)
+    {
+        for (Map.Entry<ResourceLocation, VeinType<?>> entry : VeinManager.INSTANCE.getEntries())
+        {
+            if (entry.getKey().getNamespace().equals(MOD_ID) && entry.getKey().getPath().startsWith("tests/"))
+            {
+                for (long seed : SEEDS)
+                {
+                    action.accept(entry.getValue(), rollVeins(entry.getValue(), seed, CHUNKS));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.alcatrazescapee.oreveins;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinKernel;
+import com.alcatrazescapee.oreveins.world.vein.VeinManager;
+import com.alcatrazescapee.oreveins.world.vein.VeinType;
+import org.junit.jupiter.api.Test;
+
+import static com.alcatrazescapee.oreveins.OreVeins.MOD_ID;
+import static com.alcatrazescapee.oreveins.VeinFixtures.rollVeins;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compiled kernels must give exactly the same results as the vein types they were compiled from, which are checked against {@link VeinKernel.Interpreted} here
+ */
+class TestVeinKernels
+{
+    private static final int CHUNKS = 2;
+    private static final int MARGIN = 3;
+    private static final int LARGE_OFFSET = 400; // Larger than any lookup table in the kernels
+
+    @Test
+    void testSphereKernel()
+    {
+        assertKernelParity("tests/test_sphere");
+    }
+
+    @Test
+    void testUniformSphereKernel()
+    {
+        assertKernelParity("tests/test_uniform_sphere");
+    }
+
+    @Test
+    void testConeKernel()
+    {
+        assertKernelParity("tests/test_cone");
+    }
+
+    @Test
+    void testPipeKernel()
+    {
+        assertKernelParity("tests/test_pipe");
+    }
+
+    /**
+     * Kernels look up chances from tables, and compute them directly for offsets outside of the tables. Both must agree with the vein type
+     */
+    @Test
+    void testKernelsAtLargeOffsets()
+    {
+        for (String name : new String[] {"tests/test_sphere", "tests/test_uniform_sphere", "tests/test_cone", "tests/test_pipe"})
+        {
+            VeinType<?> type = VeinManager.INSTANCE.getVein(new ResourceLocation(MOD_ID, name));
+            assertNotNull(type);
+
+            VeinKernel compiled = type.compile();
+            VeinKernel interpreted = new VeinKernel.Interpreted(type);
+            final int size = type.getHorizontalSize();
+            final int[] offsets = {0, 1, size - 1, size, size + 1, 2 * size, LARGE_OFFSET, -LARGE_OFFSET};
+            for (Vein<?> vein : rollVeins(type, CHUNKS))
+            {
+                final BlockPos center = vein.getPos();
+                for (int dx : offsets)
+                {
+                    for (int dz : offsets)
+                    {
+                        // Full columns, from far below to far above the vein, which covers both sides of the vertical tables
+                        final int x = center.getX() + dx, z = center.getZ() + dz;
+                        assertColumnParity(compiled, interpreted, vein, x, z, x, z, center.getY() - LARGE_OFFSET, center.getY() + LARGE_OFFSET);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Cluster veins skip clusters which can't have a positive chance at a position. The result must be the same as checking every cluster, except where that would be negative, as those positions are never placed.
+     */
+    @Test
+    void testClusterEarlyOut()
+    {
+        for (String name : new String[] {"tests/test_cluster", "tests/test_single_cluster"})
+        {
+            VeinType<?> type = VeinManager.INSTANCE.getVein(new ResourceLocation(MOD_ID, name));
+            assertNotNull(type);
+
+            final int horizontal = 2 * type.getHorizontalSize(), vertical = 2 * type.getVerticalSize();
+            for (Vein<?> vein : rollVeins(type, CHUNKS))
+            {
+                final double[] clusters = getParameters(vein);
+                final BlockPos center = vein.getPos();
+                for (BlockPos pos : BlockPos.getAllInBoxMutable(center.add(-horizontal, -vertical, -horizontal), center.add(horizontal, vertical, horizontal)))
+                {
+                    final float expected = getClusterChance(type, clusters, pos);
+                    final float actual = vein.getChanceToGenerate(pos);
+                    if (expected > 0)
+                    {
+                        assertEquals(Float.floatToIntBits(expected), Float.floatToIntBits(actual), "Chance of " + vein + " at " + pos);
+                    }
+                    else
+                    {
+                        assertTrue(actual <= 0, "Chance of " + vein + " at " + pos + " should not be positive, was " + actual);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares every position within a vein, and a margin around it, for veins rolled at a few seeds
+     */
+    private void assertKernelParity(String name)
+    {
+        VeinType<?> type = VeinManager.INSTANCE.getVein(new ResourceLocation(MOD_ID, name));
+        assertNotNull(type);
+
+        VeinKernel compiled = type.compile();
+        VeinKernel interpreted = new VeinKernel.Interpreted(type);
+        assertFalse(compiled instanceof VeinKernel.Interpreted, "Expected a compiled kernel for " + name);
+
+        for (Vein<?> vein : rollVeins(type, CHUNKS))
+        {
+            final BlockPos center = vein.getPos();
+            final int horizontal = type.getHorizontalSize() + MARGIN, vertical = type.getVerticalSize() + MARGIN;
+            assertColumnParity(compiled, interpreted, vein, center.getX() - horizontal, center.getZ() - horizontal, center.getX() + horizontal, center.getZ() + horizontal, center.getY() - vertical, center.getY() + vertical);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static double[] getParameters(Vein<?> vein)
+    {
+        DoubleArrayList parameters = new DoubleArrayList();
+        ((VeinType<Vein<?>>) vein.getType()).writeParameters(vein, parameters);
+        return parameters.toDoubleArray();
+    }
+
+    /**
+     * The chance of a cluster vein, checking every cluster, as it was before clusters could be skipped
+     *
+     * @param clusters the x, y, z and size of each cluster
+     */
+    private static float getClusterChance(VeinType<?> type, double[] clusters, BlockPos pos)
+    {
+        final int horizontalSize = type.getHorizontalSize(), verticalSize = type.getVerticalSize();
+        float shortestRadius = -1;
+        for (int i = 0; i < clusters.length; i += 4)
+        {
+            final double dx = Math.pow(clusters[i] - pos.getX(), 2);
+            final double dy = Math.pow(clusters[i + 1] - pos.getY(), 2);
+            final double dz = Math.pow(clusters[i + 2] - pos.getZ(), 2);
+            final float size = (float) clusters[i + 3];
+
+            final float radius = (float) ((dx + dz) / (horizontalSize * horizontalSize * size) + dy / (verticalSize * verticalSize * size));
+            if (shortestRadius == -1 || radius < shortestRadius) shortestRadius = radius;
+        }
+        return shortestRadius == -1 ? 0 : 0.005f * type.getDensity() * (1.0f - shortestRadius);
+    }
+
+    /**
+     * Compares range checks and chances, both by block and by column. Chances are compared by their bits, so they must be exactly equal
+     */
+    static void assertColumnParity(VeinKernel compiled, VeinKernel interpreted, Vein<?> vein, int minX, int minZ, int maxX, int maxZ, int minY, int maxY)
+    {
+        final BlockPos center = vein.getPos();
+        final float[] expected = new float[maxY - minY + 1], actual = new float[maxY - minY + 1];
+        for (int x = minX; x <= maxX; x++)
+        {
+            for (int z = minZ; z <= maxZ; z++)
+            {
+                assertEquals(interpreted.inRange(vein, x, z), compiled.inRange(vein, x, z), "In range of " + vein + " at " + x + ", " + z);
+                for (int y = minY; y <= maxY; y++)
+                {
+                    expected[y - minY] = interpreted.getChanceToGenerate(vein, x, y, z);
+                    actual[y - minY] = compiled.getChanceToGenerate(vein, x, y, z);
+                }
+                assertArrayEquals(expected, actual, "Chances of " + vein + " at " + x + ", " + z);
+
+                compiled.getChances(vein, center.getX(), center.getY(), center.getZ(), x, z, minY, maxY, actual, 0);
+                assertArrayEquals(expected, actual, "Column chances of " + vein + " at " + x + ", " + z);
+            }
+        }
+    }
+}
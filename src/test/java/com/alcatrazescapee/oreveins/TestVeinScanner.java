@@ -0,0 +1,66 @@
+package com.alcatrazescapee.oreveins;
+
+import java.util.concurrent.ForkJoinPool;
+
+import com.alcatrazescapee.oreveins.world.VeinFilter;
+import com.alcatrazescapee.oreveins.world.VeinScanner;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static com.alcatrazescapee.oreveins.VeinFixtures.assertSameVeins;
+
+class TestVeinScanner
+{
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final long SEED = 1234567890L;
+
+    @Test
+    void testParallelScanMatchesSequential()
+    {
+        assertParallelScanMatchesSequential(-40, -40, 40, 40);
+    }
+
+    @Test
+    void testParallelScanMatchesSequentialUnevenArea()
+    {
+        assertParallelScanMatchesSequential(3, -70, 4, 91);
+    }
+
+    /**
+     * Benchmarks a radius 200 scan with increasing numbers of threads.
+     * Run with -Doreveins.benchmark=true
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "oreveins.benchmark", matches = "true")
+    void benchmarkParallelScan()
+    {
+        final int radius = 200;
+        long baseline = 0;
+        for (int threads = 1; threads <= 8; threads *= 2)
+        {
+            ForkJoinPool pool = VeinScanner.createPool(threads);
+            VeinScanner.scan(pool, -radius, -radius, radius, radius, SEED, VeinFilter.ALL); // Warm up
+
+            long start = System.nanoTime();
+            for (int i = 0; i < 3; i++)
+            {
+                VeinScanner.scan(pool, -radius, -radius, radius, radius, SEED, VeinFilter.ALL);
+            }
+            long time = (System.nanoTime() - start) / 3;
+            pool.shutdown();
+
+            if (threads == 1)
+            {
+                baseline = time;
+            }
+            LOGGER.info("Radius {} scan with {} threads: {} ms, speedup {}x", radius, threads, time / 1_000_000, String.format("%.2f", (double) baseline / time));
+        }
+    }
+
+    private void assertParallelScanMatchesSequential(int minX, int minZ, int maxX, int maxZ)
+    {
+        assertSameVeins(VeinScanner.scanSequential(minX, minZ, maxX, maxZ, SEED, VeinFilter.ALL), VeinScanner.scan(minX, minZ, maxX, maxZ, SEED));
+    }
+}
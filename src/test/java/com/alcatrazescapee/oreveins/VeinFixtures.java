@@ -0,0 +1,93 @@
+package com.alcatrazescapee.oreveins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinType;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Shared fixtures for tests which compare veins from two different sources
+ */
+public final class VeinFixtures
+{
+    public static final long[] SEEDS = {0L, 1234567890L, -4962768465676381896L};
+
+    /**
+     * Rolls veins of a type for a single chunk. These are not the veins the world would generate, as rarity is not rolled, but they are deterministic
+     */
+    public static List<Vein<?>> rollVeins(VeinType<?> type, long seed, int chunkX, int chunkZ)
+    {
+        final List<Vein<?>> veins = new ArrayList<>();
+        type.createVeins(veins, chunkX, chunkZ, new Random(seed ^ ChunkPos.asLong(chunkX, chunkZ)));
+        return veins;
+    }
+
+    /**
+     * Rolls veins of a type over a square grid of chunks, from [0, 0] to [chunks - 1, chunks - 1]
+     */
+    public static List<Vein<?>> rollVeins(VeinType<?> type, long seed, int chunks)
+    {
+        final List<Vein<?>> veins = new ArrayList<>();
+        for (int chunkX = 0; chunkX < chunks; chunkX++)
+        {
+            for (int chunkZ = 0; chunkZ < chunks; chunkZ++)
+            {
+                veins.addAll(rollVeins(type, seed, chunkX, chunkZ));
+            }
+        }
+        return veins;
+    }
+
+    /**
+     * Rolls veins of a type over a square grid of chunks, at each of {@link #SEEDS}
+     */
+    public static List<Vein<?>> rollVeins(VeinType<?> type, int chunks)
+    {
+        final List<Vein<?>> veins = new ArrayList<>();
+        for (long seed : SEEDS)
+        {
+            veins.addAll(rollVeins(type, seed, chunks));
+        }
+        return veins;
+    }
+
+    /**
+     * Compares the type and position of each vein, and the range checks and chances at positions around it.
+     * Chances are compared by their bits, so they must be exactly equal. Parameters, such as clusters and curves, are only visible through the chances.
+     */
+    public static void assertSameVeins(List<Vein<?>> expected, List<Vein<?>> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            final Vein<?> expectedVein = expected.get(i), actualVein = actual.get(i);
+            assertSame(expectedVein.getType(), actualVein.getType());
+            assertEquals(expectedVein.getPos(), actualVein.getPos());
+
+            final BlockPos center = expectedVein.getPos();
+            final int horizontal = expectedVein.getType().getHorizontalSize() + 2, vertical = expectedVein.getType().getVerticalSize() + 2;
+            for (int x = center.getX() - horizontal; x <= center.getX() + horizontal; x += 3)
+            {
+                for (int z = center.getZ() - horizontal; z <= center.getZ() + horizontal; z += 3)
+                {
+                    assertEquals(expectedVein.inRange(x, z), actualVein.inRange(x, z), "In range of " + expectedVein + " at " + x + ", " + z);
+                    for (int y = center.getY() - vertical; y <= center.getY() + vertical; y += 2)
+                    {
+                        final BlockPos pos = new BlockPos(x, y, z);
+                        assertEquals(Float.floatToIntBits(expectedVein.getChanceToGenerate(pos)), Float.floatToIntBits(actualVein.getChanceToGenerate(pos)), "Chance of " + expectedVein + " at " + pos);
+                    }
+                }
+            }
+        }
+    }
+
+    private VeinFixtures() {}
+}
@@ -0,0 +1,136 @@
+package com.alcatrazescapee.oreveins.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import net.minecraft.util.math.ChunkPos;
+
+import com.alcatrazescapee.oreveins.world.vein.PackedVeins;
+import com.alcatrazescapee.oreveins.world.vein.Vein;
+import com.alcatrazescapee.oreveins.world.vein.VeinManager;
+import com.alcatrazescapee.oreveins.world.vein.VeinSnapshot;
+import org.junit.jupiter.api.Test;
+
+import static com.alcatrazescapee.oreveins.VeinFixtures.SEEDS;
+import static com.alcatrazescapee.oreveins.VeinFixtures.assertSameVeins;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The off heap store must return the same veins as the heap store, and stay within its limit.
+ * This is in the same package as the stores, as they are not public.
+ */
+class TestVeinStores
+{
+    private static final int CHUNKS = 40; // Spans a few regions of the off heap store
+
+    @Test
+    void testOffHeapMatchesHeap()
+    {
+        final VeinSnapshot snapshot = VeinManager.INSTANCE.getSnapshot();
+        for (long seed : SEEDS)
+        {
+            final HeapVeinStore heap = new HeapVeinStore(1_000_000);
+            final OffHeapVeinStore offHeap = new OffHeapVeinStore(64L * 1024 * 1024);
+            for (int chunkX = 0; chunkX < CHUNKS; chunkX++)
+            {
+                for (int chunkZ = 0; chunkZ < CHUNKS; chunkZ++)
+                {
+                    final long key = ChunkPos.asLong(chunkX, chunkZ);
+                    final VeinCache.ChunkVeins veins = createChunkVeins(snapshot, chunkX, chunkZ, seed);
+                    heap.put(key, veins);
+                    offHeap.put(key, veins);
+                }
+            }
+
+            assertEquals(heap.size(), offHeap.size());
+            for (int chunkX = 0; chunkX < CHUNKS; chunkX++)
+            {
+                for (int chunkZ = 0; chunkZ < CHUNKS; chunkZ++)
+                {
+                    final long key = ChunkPos.asLong(chunkX, chunkZ);
+                    assertTrue(offHeap.contains(key, snapshot));
+
+                    final VeinCache.ChunkVeins expected = heap.get(key), actual = offHeap.get(key);
+                    assertNotNull(expected);
+                    assertNotNull(actual);
+                    assertSame(expected.getSnapshot(), actual.getSnapshot());
+                    assertSameVeins(expected, actual);
+                }
+            }
+            assertFalse(offHeap.contains(ChunkPos.asLong(CHUNKS, CHUNKS), snapshot));
+            assertNull(offHeap.get(ChunkPos.asLong(CHUNKS, CHUNKS)));
+        }
+    }
+
+    @Test
+    void testOffHeapReplacesEntries()
+    {
+        final VeinSnapshot snapshot = VeinManager.INSTANCE.getSnapshot();
+        final OffHeapVeinStore offHeap = new OffHeapVeinStore(64L * 1024 * 1024);
+        final long key = ChunkPos.asLong(3, 7);
+
+        offHeap.put(key, createChunkVeins(snapshot, 3, 7, SEEDS[0]));
+        final VeinCache.ChunkVeins replacement = createChunkVeins(snapshot, 3, 7, SEEDS[1]);
+        offHeap.put(key, replacement);
+
+        final VeinCache.ChunkVeins actual = offHeap.get(key);
+        assertNotNull(actual);
+        assertEquals(1, offHeap.size());
+        assertSameVeins(replacement, actual);
+    }
+
+    @Test
+    void testOffHeapStaysWithinLimit()
+    {
+        final VeinSnapshot snapshot = VeinManager.INSTANCE.getSnapshot();
+        final long limit = 256 * 1024;
+        final OffHeapVeinStore offHeap = new OffHeapVeinStore(limit);
+        for (int chunkX = 0; chunkX < 4 * CHUNKS; chunkX++)
+        {
+            for (int chunkZ = 0; chunkZ < 4 * CHUNKS; chunkZ += 7)
+            {
+                offHeap.put(ChunkPos.asLong(chunkX, chunkZ), createChunkVeins(snapshot, chunkX, chunkZ, SEEDS[0]));
+                assertTrue(offHeap.getSizeInBytes() <= limit, "Used " + offHeap.getSizeInBytes() + " bytes of " + limit);
+            }
+        }
+
+        // Concurrent writers, which all evict from each other
+        IntStream.range(0, 4 * CHUNKS * CHUNKS).parallel().forEach(i -> {
+            final int chunkX = i % (4 * CHUNKS), chunkZ = i / (4 * CHUNKS);
+            offHeap.put(ChunkPos.asLong(chunkX, chunkZ), createChunkVeins(snapshot, chunkX, chunkZ, SEEDS[1]));
+        });
+        assertTrue(offHeap.getSizeInBytes() <= limit, "Used " + offHeap.getSizeInBytes() + " bytes of " + limit);
+
+        // Any entries which survived must still be read back correctly
+        for (int i = 0; i < 4 * CHUNKS * CHUNKS; i++)
+        {
+            final int chunkX = i % (4 * CHUNKS), chunkZ = i / (4 * CHUNKS);
+            final VeinCache.ChunkVeins actual = offHeap.get(ChunkPos.asLong(chunkX, chunkZ));
+            if (actual != null)
+            {
+                assertSameVeins(createChunkVeins(snapshot, chunkX, chunkZ, SEEDS[1]), actual);
+            }
+        }
+    }
+
+    /**
+     * Rolls veins for every type in a snapshot. These don't need to be the veins the world would generate, only deterministic
+     */
+    private VeinCache.ChunkVeins createChunkVeins(VeinSnapshot snapshot, int chunkX, int chunkZ, long seed)
+    {
+        final PackedVeins[] byType = new PackedVeins[snapshot.size()];
+        final Random random = new Random(seed ^ ChunkPos.asLong(chunkX, chunkZ));
+        for (int i = 0; i < byType.length; i++)
+        {
+            final List<Vein<?>> veins = new ArrayList<>();
+            if (random.nextInt(3) == 0)
+            {
+                snapshot.getVein(i).createVeins(veins, chunkX, chunkZ, random);
+            }
+            byType[i] = PackedVeins.of(veins);
+        }
+        return new VeinCache.ChunkVeins(snapshot, byType);
+    }
+}